@@ -3,15 +3,21 @@ package moe.takochan.takotech.common;
 import net.minecraftforge.common.MinecraftForge;
 
 import appeng.api.AEApi;
+import cpw.mods.fml.common.FMLCommonHandler;
 import cpw.mods.fml.common.event.FMLInitializationEvent;
 import cpw.mods.fml.common.event.FMLPostInitializationEvent;
 import cpw.mods.fml.common.event.FMLPreInitializationEvent;
 import cpw.mods.fml.common.event.FMLServerStartingEvent;
 import moe.takochan.takotech.client.gui.GuiType;
+import moe.takochan.takotech.common.command.CommandTakoTech;
+import moe.takochan.takotech.common.event.ConfigEventHandler;
 import moe.takochan.takotech.common.event.ItemTooltipEventHandler;
+import moe.takochan.takotech.common.event.OreDictEventHandler;
 import moe.takochan.takotech.common.event.PlayerDestroyItemEventHandler;
 import moe.takochan.takotech.common.event.RenderGameOverlayEventHandler;
+import moe.takochan.takotech.common.event.ServerTickEventHandler;
 import moe.takochan.takotech.common.event.WorldEventHandler;
+import moe.takochan.takotech.common.item.ae.OreAdmissionTable;
 import moe.takochan.takotech.common.loader.BlockLoader;
 import moe.takochan.takotech.common.loader.ItemLoader;
 import moe.takochan.takotech.common.loader.ModLoader;
@@ -20,6 +26,7 @@ import moe.takochan.takotech.common.storage.CellItemSavedData;
 import moe.takochan.takotech.common.storage.TakoCellHandler;
 import moe.takochan.takotech.config.TakoTechConfig;
 import moe.takochan.takotech.crossmod.Waila;
+import moe.takochan.takotech.utils.OreMaterialIndex;
 
 public class CommonProxy {
 
@@ -30,6 +37,13 @@ public class CommonProxy {
         MinecraftForge.EVENT_BUS.register(new RenderGameOverlayEventHandler());
         MinecraftForge.EVENT_BUS.register(new PlayerDestroyItemEventHandler());
         MinecraftForge.EVENT_BUS.register(new ItemTooltipEventHandler());
+        MinecraftForge.EVENT_BUS.register(new OreDictEventHandler());
+        FMLCommonHandler.instance()
+            .bus()
+            .register(new ServerTickEventHandler());
+        FMLCommonHandler.instance()
+            .bus()
+            .register(new ConfigEventHandler());
         // 配置初始化
         TakoTechConfig.init();
         // ModLoader
@@ -58,10 +72,16 @@ public class CommonProxy {
             .registries()
             .cell()
             .addCellHandler(new TakoCellHandler());
+        // 构建矿物存储元件准入表
+        OreAdmissionTable.rebuild();
+        // 构建矿石变体到材料的索引
+        OreMaterialIndex.rebuild();
     }
 
     // register server commands in this event handler (Remove if not needed)
-    public void serverStarting(FMLServerStartingEvent event) {}
+    public void serverStarting(FMLServerStartingEvent event) {
+        event.registerServerCommand(new CommandTakoTech());
+    }
 
     public void serverStopping(FMLServerStartingEvent event) {
         CellItemSavedData cellData = CellItemSavedData.getInstance();
@@ -0,0 +1,57 @@
+package moe.takochan.takotech.common.command;
+
+import java.util.List;
+
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
+import net.minecraft.util.ChatComponentText;
+import net.minecraft.util.ChatComponentTranslation;
+
+import moe.takochan.takotech.common.scheduler.TakoScheduler;
+
+/**
+ * TakoTech 的管理命令。
+ * <p>
+ * {@code /takotech jobs}：列出 {@link TakoScheduler} 中尚未完成的后台任务及其进度。
+ */
+public class CommandTakoTech extends CommandBase {
+
+    @Override
+    public String getCommandName() {
+        return "takotech";
+    }
+
+    @Override
+    public String getCommandUsage(ICommandSender sender) {
+        return "commands.takotech.usage";
+    }
+
+    @Override
+    public int getRequiredPermissionLevel() {
+        return 2;
+    }
+
+    @Override
+    public void processCommand(ICommandSender sender, String[] args) {
+        if (args.length == 1 && "jobs".equals(args[0])) {
+            final List<String> status = TakoScheduler.getStatus();
+            if (status.isEmpty()) {
+                sender.addChatMessage(new ChatComponentTranslation("commands.takotech.jobs.none"));
+                return;
+            }
+            sender.addChatMessage(new ChatComponentTranslation("commands.takotech.jobs", status.size()));
+            for (final String line : status) {
+                sender.addChatMessage(new ChatComponentText(line));
+            }
+            return;
+        }
+        throw new WrongUsageException(this.getCommandUsage(sender));
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public List addTabCompletionOptions(ICommandSender sender, String[] args) {
+        return args.length == 1 ? getListOfStringsMatchingLastWord(args, "jobs") : null;
+    }
+}
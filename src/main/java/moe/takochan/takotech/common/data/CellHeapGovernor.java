@@ -0,0 +1,118 @@
+package moe.takochan.takotech.common.data;
+
+import moe.takochan.takotech.TakoTechMod;
+import moe.takochan.takotech.config.OreStorageCellConfig;
+
+/**
+ * 矿物存储元件的内存预算。
+ * <p>
+ * 汇总所有已加载硬盘的估算内存占用（参见 {@link CellItemStorageData#getFootprint()}），硬盘加载、卸载以及物品类型增减时增量更新。
+ * <ul>
+ * <li>超过软预算时，硬盘维护会按访问时间卸载硬盘，直到回到预算以内</li>
+ * <li>超过硬预算时，元件拒绝存入新的物品类型，已有类型的数量不受影响</li>
+ * </ul>
+ * 两种预算都按最大堆内存的百分比配置，超过预算时定期在日志中警告。
+ * <p>
+ * 只能在服务端线程上使用。
+ */
+public class CellHeapGovernor {
+
+    // 两次警告之间的最短间隔（毫秒）
+    private static final long WARN_INTERVAL_MS = 5 * 60_000L;
+
+    // 已加载硬盘的估算内存占用（字节）
+    private static long loadedBytes;
+    // 上次警告的时间
+    private static long lastWarning;
+
+    private CellHeapGovernor() {}
+
+    /**
+     * 调整已加载硬盘的估算内存占用。
+     *
+     * @param delta 变化量（字节）
+     */
+    static void adjust(long delta) {
+        loadedBytes += delta;
+    }
+
+    /**
+     * 清空统计，在世界卸载时调用。
+     */
+    public static void reset() {
+        loadedBytes = 0;
+        lastWarning = 0;
+    }
+
+    /**
+     * @return 已加载硬盘的估算内存占用（字节）
+     */
+    public static long getLoadedBytes() {
+        return loadedBytes;
+    }
+
+    /**
+     * @return 软预算（字节），0 表示不限制
+     */
+    public static long getSoftBudget() {
+        return budget(OreStorageCellConfig.heapSoftBudgetPercent);
+    }
+
+    /**
+     * @return 硬预算（字节），0 表示不限制
+     */
+    public static long getHardBudget() {
+        return budget(OreStorageCellConfig.heapHardBudgetPercent);
+    }
+
+    /**
+     * 判断是否超过软预算，需要卸载硬盘。
+     *
+     * @return 超过软预算时返回 true
+     */
+    public static boolean isOverSoftBudget() {
+        final long soft = getSoftBudget();
+        return soft > 0 && loadedBytes > soft;
+    }
+
+    /**
+     * 判断是否还允许存入新的物品类型，超过硬预算时拒绝并警告。
+     *
+     * @return 允许时返回 true
+     */
+    public static boolean canAddTypes() {
+        final long hard = getHardBudget();
+        if (hard <= 0 || loadedBytes < hard) {
+            return true;
+        }
+        warn("hard", hard);
+        return false;
+    }
+
+    /**
+     * 超过软预算时警告，由硬盘维护定期调用。
+     */
+    public static void checkSoftBudget() {
+        if (isOverSoftBudget()) {
+            warn("soft", getSoftBudget());
+        }
+    }
+
+    private static long budget(int percent) {
+        return percent > 0 ? Runtime.getRuntime()
+            .maxMemory() / 100 * percent : 0;
+    }
+
+    private static void warn(String kind, long budget) {
+        final long now = System.currentTimeMillis();
+        if (now - lastWarning < WARN_INTERVAL_MS) {
+            return;
+        }
+        lastWarning = now;
+        TakoTechMod.LOG.warn(
+            "Ore storage cells use an estimated {} MB of heap, over the {} budget of {} MB",
+            loadedBytes >> 20,
+            kind,
+            budget >> 20);
+    }
+}
@@ -0,0 +1,336 @@
+package moe.takochan.takotech.common.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import net.minecraft.item.Item;
+
+import appeng.api.storage.data.IAEItemStack;
+import appeng.api.storage.data.IItemList;
+import moe.takochan.takotech.utils.LongLongHashMap;
+
+/**
+ * 硬盘内容的不可变版本快照，可以在任意线程上读取和遍历。
+ * <p>
+ * 不带NBT的物品按键的散列分到固定数量的页中，每页是按键排序的两个 long 数组。新版本只复制包含变化条目的页，
+ * 其余页与上一个版本共享，因此发布一个版本的开销只与变化的条目所在的页有关。带NBT的物品很少，发生变化时整体复制。
+ * <p>
+ * 快照只在服务端线程上由 {@link CellItemStorageData#publishSnapshot()} 创建，通过 volatile 字段发布，读取方不需要加锁，
+ * 服务端线程也不会等待读取方。
+ */
+public class CellItemSnapshot {
+
+    // 页数量的位数
+    private static final int PAGE_BITS = 6;
+    // 页数量
+    private static final int PAGE_COUNT = 1 << PAGE_BITS;
+    private static final long[] NO_LONGS = new long[0];
+    private static final IAEItemStack[] NO_TAGGED = new IAEItemStack[0];
+    private static final Page EMPTY_PAGE = new Page(NO_LONGS, NO_LONGS, 0);
+
+    // 硬盘ID
+    private final String diskID;
+    // 版本号，同一个硬盘每发布一次加一
+    private final long version;
+    // 不带NBT的物品
+    private final Page[] pages;
+    // 带NBT的物品副本
+    private final IAEItemStack[] tagged;
+    // 物品类型数量和物品总数
+    private final int types;
+    private final long totalCount;
+
+    private CellItemSnapshot(String diskID, long version, Page[] pages, IAEItemStack[] tagged) {
+        this.diskID = diskID;
+        this.version = version;
+        this.pages = pages;
+        this.tagged = tagged;
+        int types = tagged.length;
+        long totalCount = 0;
+        for (final Page page : pages) {
+            types += page.keys.length;
+            totalCount += page.total;
+        }
+        for (final IAEItemStack ais : tagged) {
+            totalCount += ais.getStackSize();
+        }
+        this.types = types;
+        this.totalCount = totalCount;
+    }
+
+    /**
+     * 复制硬盘的全部内容，创建第一个版本。
+     *
+     * @param diskID 硬盘ID
+     * @param counts 不带NBT的物品数量表
+     * @param tagged 带NBT的物品列表
+     * @return 快照
+     */
+    static CellItemSnapshot of(String diskID, LongLongHashMap counts, IItemList<IAEItemStack> tagged) {
+        final LongLongHashMap[] grouped = new LongLongHashMap[PAGE_COUNT];
+        for (int slot = 0; slot < counts.capacity(); slot++) {
+            if (counts.isUsed(slot)) {
+                final long key = counts.keyAt(slot);
+                final int page = pageOf(key);
+                if (grouped[page] == null) {
+                    grouped[page] = new LongLongHashMap();
+                }
+                grouped[page].put(key, counts.valueAt(slot));
+            }
+        }
+
+        final Page[] pages = new Page[PAGE_COUNT];
+        for (int i = 0; i < PAGE_COUNT; i++) {
+            pages[i] = grouped[i] == null ? EMPTY_PAGE : EMPTY_PAGE.merge(grouped[i]);
+        }
+        return new CellItemSnapshot(diskID, 1, pages, copyTagged(tagged));
+    }
+
+    /**
+     * 创建下一个版本，只复制包含变化条目的页。
+     *
+     * @param counts  当前的不带NBT的物品数量表
+     * @param changed 自上一个版本以来发生变化的键
+     * @param tagged  带NBT的物品列表，没有变化时为 null
+     * @return 新版本的快照
+     */
+    CellItemSnapshot update(LongLongHashMap counts, LongLongHashMap changed, IItemList<IAEItemStack> tagged) {
+        Page[] pages = this.pages;
+        if (!changed.isEmpty()) {
+            final LongLongHashMap[] grouped = new LongLongHashMap[PAGE_COUNT];
+            for (int slot = 0; slot < changed.capacity(); slot++) {
+                if (changed.isUsed(slot)) {
+                    final long key = changed.keyAt(slot);
+                    final int page = pageOf(key);
+                    if (grouped[page] == null) {
+                        grouped[page] = new LongLongHashMap();
+                    }
+                    // 数量为 0 表示条目已经删除
+                    grouped[page].put(key, counts.get(key, 0));
+                }
+            }
+
+            pages = this.pages.clone();
+            for (int i = 0; i < PAGE_COUNT; i++) {
+                if (grouped[i] != null) {
+                    pages[i] = pages[i].merge(grouped[i]);
+                }
+            }
+        }
+        return new CellItemSnapshot(
+            this.diskID,
+            this.version + 1,
+            pages,
+            tagged != null ? copyTagged(tagged) : this.tagged);
+    }
+
+    private static IAEItemStack[] copyTagged(IItemList<IAEItemStack> tagged) {
+        if (tagged == null || tagged.isEmpty()) {
+            return NO_TAGGED;
+        }
+        final List<IAEItemStack> live = new ArrayList<>();
+        for (final IAEItemStack ais : tagged) {
+            if (ais.getStackSize() > 0) {
+                live.add(ais.copy());
+            }
+        }
+        return live.toArray(NO_TAGGED);
+    }
+
+    private static int pageOf(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (int) (h >>> (64 - PAGE_BITS));
+    }
+
+    /**
+     * @return 硬盘ID
+     */
+    public String getDiskID() {
+        return this.diskID;
+    }
+
+    /**
+     * @return 版本号，同一个硬盘的版本号越大内容越新
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * @return 物品类型数量
+     */
+    public int getStoredTypes() {
+        return this.types;
+    }
+
+    /**
+     * @return 物品总数
+     */
+    public long getStoredCount() {
+        return this.totalCount;
+    }
+
+    /**
+     * @return 快照中没有任何物品时返回 true
+     */
+    public boolean isEmpty() {
+        return this.types == 0;
+    }
+
+    /**
+     * 获取不带NBT的物品的数量。
+     *
+     * @param item 物品
+     * @param meta 元数据
+     * @return 物品数量，不存在时返回 0
+     */
+    public long getCount(Item item, int meta) {
+        return this.getCount(CellItemStorageData.key(item, meta));
+    }
+
+    /**
+     * 获取不带NBT的物品的数量。
+     *
+     * @param key 键，参见 {@link CellItemStorageData#key}
+     * @return 物品数量，不存在时返回 0
+     */
+    public long getCount(long key) {
+        final Page page = this.pages[pageOf(key)];
+        final int index = Arrays.binarySearch(page.keys, key);
+        return index >= 0 ? page.counts[index] : 0;
+    }
+
+    /**
+     * 获取物品的数量。
+     *
+     * @param item 物品
+     * @return 物品数量，不存在时返回 0
+     */
+    public long getCount(IAEItemStack item) {
+        if (!item.hasTagCompound()) {
+            return this.getCount(item.getItem(), item.getItemDamage());
+        }
+        for (final IAEItemStack ais : this.tagged) {
+            if (ais.isSameType(item)) {
+                return ais.getStackSize();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 遍历不带NBT的物品的键和数量，不创建物品堆栈。
+     *
+     * @param consumer 条目处理器
+     */
+    public void forEachEntry(EntryConsumer consumer) {
+        for (final Page page : this.pages) {
+            for (int i = 0; i < page.keys.length; i++) {
+                consumer.accept(page.keys[i], page.counts[i]);
+            }
+        }
+    }
+
+    /**
+     * 遍历所有物品，每个物品都是新的物品堆栈。
+     *
+     * @param consumer 物品处理器
+     */
+    public void forEach(Consumer<IAEItemStack> consumer) {
+        this.forEachEntry((key, count) -> {
+            final IAEItemStack ais = CellItemStorageData.createStack(key, count);
+            if (ais != null) {
+                consumer.accept(ais);
+            }
+        });
+        for (final IAEItemStack ais : this.tagged) {
+            consumer.accept(ais.copy());
+        }
+    }
+
+    /**
+     * 不带NBT的物品条目处理器。
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+
+        /**
+         * @param key   键，参见 {@link CellItemStorageData#key}
+         * @param count 数量
+         */
+        void accept(long key, long count);
+    }
+
+    /**
+     * 按键排序的一页条目，创建后不再修改。
+     */
+    private static class Page {
+
+        private final long[] keys;
+        private final long[] counts;
+        // 本页的物品总数
+        private final long total;
+
+        private Page(long[] keys, long[] counts, long total) {
+            this.keys = keys;
+            this.counts = counts;
+            this.total = total;
+        }
+
+        /**
+         * 把变化的条目合并进本页，生成新的一页。
+         *
+         * @param changes 变化的键和新的数量，数量为 0 时删除条目
+         * @return 新的一页
+         */
+        private Page merge(LongLongHashMap changes) {
+            final long[] changedKeys = new long[changes.size()];
+            int n = 0;
+            for (int slot = 0; slot < changes.capacity(); slot++) {
+                if (changes.isUsed(slot)) {
+                    changedKeys[n++] = changes.keyAt(slot);
+                }
+            }
+            Arrays.sort(changedKeys);
+
+            final long[] keys = new long[this.keys.length + changedKeys.length];
+            final long[] counts = new long[keys.length];
+            long total = 0;
+            int size = 0;
+            int i = 0;
+            int j = 0;
+            while (i < this.keys.length || j < changedKeys.length) {
+                long key;
+                long count;
+                if (j >= changedKeys.length || (i < this.keys.length && this.keys[i] < changedKeys[j])) {
+                    key = this.keys[i];
+                    count = this.counts[i++];
+                } else {
+                    key = changedKeys[j++];
+                    count = changes.get(key, 0);
+                    // 变化的键已经在本页中时跳过旧的条目
+                    if (i < this.keys.length && this.keys[i] == key) {
+                        i++;
+                    }
+                }
+                if (count > 0) {
+                    keys[size] = key;
+                    counts[size] = count;
+                    total += count;
+                    size++;
+                }
+            }
+
+            if (size == 0) {
+                return EMPTY_PAGE;
+            }
+            return new Page(
+                size == keys.length ? keys : Arrays.copyOf(keys, size),
+                size == counts.length ? counts : Arrays.copyOf(counts, size),
+                total);
+        }
+    }
+}
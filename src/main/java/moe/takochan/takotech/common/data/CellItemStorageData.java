@@ -1,25 +1,89 @@
 package moe.takochan.takotech.common.data;
 
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NBTBase;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
+import net.minecraftforge.common.util.Constants;
 
 import appeng.api.AEApi;
 import appeng.api.storage.data.IAEItemStack;
 import appeng.api.storage.data.IItemList;
 import appeng.util.item.AEItemStack;
+import moe.takochan.takotech.constants.NBTConstants;
+import moe.takochan.takotech.utils.LongLongHashMap;
 
+/**
+ * 单个矿物存储元件硬盘的数据。
+ * <p>
+ * 矿物几乎都是没有NBT的 (物品ID, 元数据) 组合，这类物品的数量以打包后的键直接存放在 {@link LongLongHashMap} 中，不为每个物品创建 {@link IAEItemStack}。 只有带NBT的物品才使用
+ * AE 的物品列表存放。
+ * <p>
+ * 从索引创建的硬盘在第一次访问物品之前不会读取分片，此时只能通过 {@link #getStoredTypes()} 和 {@link #getStoredCount()} 获取索引中记录的统计信息。
+ * <p>
+ * 除 {@link #getSnapshot()} 以外的方法只能在服务端线程上调用，其他线程通过发布的 {@link CellItemSnapshot} 读取内容。
+ */
 public class CellItemStorageData {
 
+    // 估算内存占用时每个硬盘的固定开销、每个不带NBT的条目和每个带NBT的条目的字节数
+    private static final long BASE_BYTES = 256;
+    private static final long ENTRY_BYTES = 48;
+    private static final long TAGGED_ENTRY_BYTES = 512;
+    // 快照中每个不带NBT的条目的字节数
+    private static final long SNAPSHOT_ENTRY_BYTES = 16;
+
     // 硬盘Id
     private final String diskID;
-    // 物品列表
-    private IItemList<IAEItemStack> items;
+    // 不带NBT的物品数量，键为 (物品ID << 32) | 元数据
+    private LongLongHashMap counts;
+    // 带NBT的物品列表
+    private IItemList<IAEItemStack> tagged;
+    // 带NBT的物品列表中数量已经为 0、等待压缩的条目数量
+    private int deadTagged;
+    // 分片中已包含的日志段序号，序号更小的日志无需重放
+    private long journalSeq;
+    // 尚未加载时用于读取分片的加载器
+    private Function<String, CellItemStorageData> loader;
+    // 索引中记录的物品类型数量和物品总数
+    private int indexedTypes;
+    private long indexedCount;
+    // 上次访问物品的时间
+    private long lastAccess;
+    // 上次确认仍有元件引用该硬盘的世界时间（tick），0 表示未知
+    private long lastSeen;
+    // 估算的内存占用（字节），未加载时为 0
+    private long footprint;
+    // 内存占用是否计入 CellHeapGovernor
+    private boolean accounted;
+    // 最近发布的快照，未加载或尚未发布时为 null
+    private volatile CellItemSnapshot snapshot;
+    // 自上次发布快照以来发生变化的不带NBT的物品的键，值不使用
+    private LongLongHashMap changed;
+    // 自上次发布快照以来带NBT的物品是否发生变化
+    private boolean taggedChanged;
+    // 每个 OreAggregates 分类下的物品数量，null 表示尚未统计
+    private LongLongHashMap classCounts;
 
     public CellItemStorageData(String diskID) {
         this.diskID = diskID;
     }
 
+    /**
+     * 创建一个尚未加载的硬盘，物品会在第一次访问时通过加载器读取。
+     *
+     * @param diskID 硬盘ID
+     * @param loader 分片加载器，分片不存在时返回 null
+     */
+    public CellItemStorageData(String diskID, Function<String, CellItemStorageData> loader) {
+        this.diskID = diskID;
+        this.loader = loader;
+    }
+
     /**
      * 通过NBT及diskId获取元件存储实例
      *
@@ -34,27 +98,621 @@ public class CellItemStorageData {
     }
 
     /**
-     * 获取存储元件的物品列表，若没有则创建一个新的列表。
+     * 将物品ID和元数据打包为键。
+     *
+     * @param item 物品
+     * @param meta 元数据
+     * @return 键
+     */
+    public static long key(Item item, int meta) {
+        return ((long) Item.getIdFromItem(item) << 32) | (meta & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param key 键
+     * @return 键对应的物品，物品不存在时返回 null
+     */
+    public static Item keyItem(long key) {
+        return Item.getItemById((int) (key >>> 32));
+    }
+
+    /**
+     * @param key 键
+     * @return 键对应的元数据
+     */
+    public static int keyMeta(long key) {
+        return (int) key;
+    }
+
+    /**
+     * 根据键和数量创建物品堆栈。
+     *
+     * @param key   键
+     * @param count 数量
+     * @return 物品堆栈，物品不存在时返回 null
+     */
+    public static IAEItemStack createStack(long key, long count) {
+        final Item item = keyItem(key);
+        if (item == null) {
+            return null;
+        }
+        final IAEItemStack ais = AEItemStack.create(new ItemStack(item, 1, keyMeta(key)));
+        if (ais != null) {
+            ais.setStackSize(count);
+        }
+        return ais;
+    }
+
+    /**
+     * 判断物品是否可以使用基本类型存储（不带NBT）。
+     *
+     * @param item 物品
+     * @return 不带NBT时返回 true
+     */
+    private static boolean isPrimitive(IAEItemStack item) {
+        return !item.hasTagCompound();
+    }
+
+    /**
+     * 获取物品的数量。
+     *
+     * @param item 物品
+     * @return 物品数量，不存在时返回 0
+     */
+    public long getCount(IAEItemStack item) {
+        this.touch();
+        if (isPrimitive(item)) {
+            return this.counts.get(key(item.getItem(), item.getItemDamage()), 0);
+        }
+        final IAEItemStack existing = this.tagged.findPrecise(item);
+        return existing != null ? existing.getStackSize() : 0;
+    }
+
+    /**
+     * 判断硬盘中是否存在该物品类型。
+     *
+     * @param item 物品
+     * @return 存在且数量大于 0 时返回 true
+     */
+    public boolean contains(IAEItemStack item) {
+        return this.getCount(item) > 0;
+    }
+
+    /**
+     * 查找物品，返回带有当前数量的新物品堆栈。
+     *
+     * @param request 要查找的物品
+     * @return 物品堆栈，不存在时返回 null
+     */
+    public IAEItemStack findPrecise(IAEItemStack request) {
+        if (!this.contains(request)) {
+            return null;
+        }
+        final IAEItemStack result = request.copy();
+        result.reset();
+        result.setStackSize(this.getCount(request));
+        return result;
+    }
+
+    /**
+     * 修改物品的数量，数量不会小于 0。
+     * <p>
+     * 不带NBT的物品数量降为 0 时会立即从数量表中删除；带NBT的物品只标记为失效，在 {@link #compact()} 时删除。
+     *
+     * @param item  物品
+     * @param delta 数量变化，注入为正，提取为负
+     * @return 修改后的数量
+     */
+    public long add(IAEItemStack item, long delta) {
+        this.touch();
+        if (isPrimitive(item)) {
+            final long key = key(item.getItem(), item.getItemDamage());
+            final long before = this.counts.get(key, 0);
+            final long count = Math.max(0, before + delta);
+            if (count > 0) {
+                this.counts.put(key, count);
+            } else {
+                this.counts.remove(key);
+            }
+            this.recordChange(key);
+            this.recordClass(key, count - before);
+            this.updateFootprint();
+            return count;
+        }
+
+        final IAEItemStack existing = this.tagged.findPrecise(item);
+        if (existing != null) {
+            final long before = existing.getStackSize();
+            existing.setStackSize(Math.max(0, before + delta));
+            if (before > 0 && existing.getStackSize() == 0) {
+                this.deadTagged++;
+            } else if (before == 0 && existing.getStackSize() > 0) {
+                this.deadTagged--;
+            }
+            this.taggedChanged = true;
+            this.recordClass(key(item.getItem(), item.getItemDamage()), existing.getStackSize() - before);
+            return existing.getStackSize();
+        } else if (delta > 0) {
+            final IAEItemStack added = item.copy();
+            added.reset();
+            added.setStackSize(delta);
+            this.tagged.add(added);
+            this.taggedChanged = true;
+            this.recordClass(key(item.getItem(), item.getItemDamage()), delta);
+            this.updateFootprint();
+            return delta;
+        }
+        return 0;
+    }
+
+    /**
+     * 直接写入不带NBT的物品数量，用于从分片读取。
+     *
+     * @param item  物品
+     * @param meta  元数据
+     * @param count 数量
+     */
+    public void putCount(Item item, int meta, long count) {
+        this.touch();
+        if (count > 0) {
+            final long key = key(item, meta);
+            final long before = this.counts.get(key, 0);
+            this.counts.put(key, count);
+            this.recordChange(key);
+            this.recordClass(key, count - before);
+            this.updateFootprint();
+        }
+    }
+
+    /**
+     * 删除带NBT的物品列表中数量为 0 的条目。不带NBT的物品在数量降为 0 时已经删除，这里不需要处理。
+     * <p>
+     * 在创建快照时调用，压缩的开销分摊到每次保存。
+     */
+    public void compact() {
+        if (this.tagged == null || this.deadTagged == 0) {
+            return;
+        }
+
+        final IItemList<IAEItemStack> live = AEApi.instance()
+            .storage()
+            .createPrimitiveItemList();
+        for (final IAEItemStack ais : this.tagged) {
+            if (ais.getStackSize() > 0) {
+                live.add(ais);
+            }
+        }
+        this.tagged = live;
+        this.deadTagged = 0;
+        this.updateFootprint();
+    }
+
+    /**
+     * 获取估算的内存占用，按条目数量估算，不遍历物品。
+     *
+     * @return 估算的字节数，未加载时返回 0
+     */
+    public long getFootprint() {
+        return this.footprint;
+    }
+
+    /**
+     * 设置内存占用是否计入 {@link CellHeapGovernor}。硬盘登记到硬盘列表时计入，从列表中移除时扣除。
+     *
+     * @param accounted 是否计入
+     */
+    public void setAccounted(boolean accounted) {
+        if (this.accounted != accounted) {
+            this.accounted = accounted;
+            CellHeapGovernor.adjust(accounted ? this.footprint : -this.footprint);
+            // 已加载时按内容重新统计，未加载时使用索引中保存的分类计数
+            if (accounted && this.counts != null) {
+                this.classCounts = this.countClasses();
+            }
+            OreAggregates.apply(this.classCounts, accounted ? 1 : -1);
+        }
+    }
+
+    /**
+     * 把一次数量变化计入物品所属的分类，只有登记的硬盘才参与 {@link OreAggregates} 的统计。
+     *
+     * @param key   物品键
+     * @param delta 实际的数量变化
+     */
+    private void recordClass(long key, long delta) {
+        if (!this.accounted || this.classCounts == null || delta == 0) {
+            return;
+        }
+        final int id = OreAggregates.classOf(key);
+        if (id < 0) {
+            return;
+        }
+        if (this.classCounts.addTo(id, delta) == 0) {
+            this.classCounts.remove(id);
+        }
+        OreAggregates.add(id, delta);
+    }
+
+    /**
+     * 按当前内容重新统计分类计数，用于加载后以及分类发生变化时。未登记或未加载的硬盘不做任何事。
+     */
+    public void reclassify() {
+        if (!this.accounted || this.counts == null) {
+            return;
+        }
+        OreAggregates.apply(this.classCounts, -1);
+        this.classCounts = this.countClasses();
+        OreAggregates.apply(this.classCounts, 1);
+    }
+
+    private LongLongHashMap countClasses() {
+        final LongLongHashMap result = new LongLongHashMap();
+        for (int slot = 0; slot < this.counts.capacity(); slot++) {
+            if (this.counts.isUsed(slot)) {
+                final int id = OreAggregates.classOf(this.counts.keyAt(slot));
+                if (id >= 0) {
+                    result.addTo(id, this.counts.valueAt(slot));
+                }
+            }
+        }
+        for (final IAEItemStack ais : this.tagged) {
+            if (ais.getStackSize() > 0) {
+                final int id = OreAggregates.classOf(key(ais.getItem(), ais.getItemDamage()));
+                if (id >= 0) {
+                    result.addTo(id, ais.getStackSize());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 根据条目数量重新估算内存占用，并把变化量计入 {@link CellHeapGovernor}。已发布快照时计入快照的条目。
+     */
+    private void updateFootprint() {
+        final long entryBytes = this.snapshot != null ? ENTRY_BYTES + SNAPSHOT_ENTRY_BYTES : ENTRY_BYTES;
+        final long updated = this.counts == null ? 0
+            : BASE_BYTES + this.counts.size() * entryBytes + this.tagged.size() * TAGGED_ENTRY_BYTES;
+        if (this.accounted) {
+            CellHeapGovernor.adjust(updated - this.footprint);
+        }
+        this.footprint = updated;
+    }
+
+    /**
+     * 已发布快照时记录发生变化的键，下次发布时只更新这些条目。
+     */
+    private void recordChange(long key) {
+        if (this.snapshot != null) {
+            this.changed.put(key, 0);
+        }
+    }
+
+    /**
+     * 发布当前内容的新版本快照，内容没有变化时不做任何事。第一次发布时复制全部内容，之后只复制变化的条目所在的页。
+     * <p>
+     * 只能在服务端线程上调用，尚未加载时不会发布。
+     *
+     * @return 发布了新版本时返回 true
+     */
+    public boolean publishSnapshot() {
+        if (this.counts == null) {
+            return false;
+        }
+        final CellItemSnapshot current = this.snapshot;
+        if (current == null) {
+            this.snapshot = CellItemSnapshot.of(this.diskID, this.counts, this.tagged);
+            this.changed = new LongLongHashMap();
+            this.updateFootprint();
+        } else if (!this.changed.isEmpty() || this.taggedChanged) {
+            this.snapshot = current.update(this.counts, this.changed, this.taggedChanged ? this.tagged : null);
+            this.changed.clear();
+        } else {
+            return false;
+        }
+        this.taggedChanged = false;
+        return true;
+    }
+
+    /**
+     * 获取最近发布的快照，可以在任意线程上调用。快照不会随内容变化，需要新内容时重新获取。
+     *
+     * @return 快照，尚未发布或硬盘已卸载时返回 null
+     */
+    public CellItemSnapshot getSnapshot() {
+        return this.snapshot;
+    }
+
+    /**
+     * 丢弃已发布的快照并停止记录变化，已经取得快照的读取方不受影响。
+     */
+    public void discardSnapshot() {
+        if (this.snapshot != null) {
+            this.snapshot = null;
+            this.changed = null;
+            this.taggedChanged = false;
+            this.updateFootprint();
+        }
+    }
+
+    /**
+     * 遍历数量大于 0 的物品，每个物品都是新的物品堆栈，不带NBT的物品从 {@link ItemPrototypes} 复制。
+     * <p>
+     * 只能在服务端线程上调用。
+     *
+     * @param consumer 物品处理器
+     */
+    public void forEach(Consumer<IAEItemStack> consumer) {
+        this.touch();
+        for (int slot = 0; slot < this.counts.capacity(); slot++) {
+            if (this.counts.isUsed(slot)) {
+                final IAEItemStack ais = ItemPrototypes.create(this.counts.keyAt(slot), this.counts.valueAt(slot));
+                if (ais != null) {
+                    consumer.accept(ais);
+                }
+            }
+        }
+        for (final IAEItemStack ais : this.tagged) {
+            if (ais.getStackSize() > 0) {
+                consumer.accept(ais.copy());
+            }
+        }
+    }
+
+    /**
+     * 创建分批列出当前内容的游标。
+     *
+     * @return 游标
+     */
+    public ItemListingCursor openCursor() {
+        this.touch();
+        final long[] keys = new long[this.counts.size()];
+        final long[] values = new long[keys.length];
+        int n = 0;
+        for (int slot = 0; slot < this.counts.capacity(); slot++) {
+            if (this.counts.isUsed(slot)) {
+                keys[n] = this.counts.keyAt(slot);
+                values[n] = this.counts.valueAt(slot);
+                n++;
+            }
+        }
+
+        final IAEItemStack[] live = new IAEItemStack[this.tagged.size() - this.deadTagged];
+        int t = 0;
+        for (final IAEItemStack ais : this.tagged) {
+            if (ais.getStackSize() > 0 && t < live.length) {
+                live[t++] = ais.copy();
+            }
+        }
+        return new ItemListingCursor(keys, values, t == live.length ? live : Arrays.copyOf(live, t));
+    }
+
+    /**
+     * 获取不带NBT的物品数量表，只能在服务端线程上读取，不要修改。
+     *
+     * @return 物品数量表
+     */
+    public LongLongHashMap getPrimitiveCounts() {
+        this.touch();
+        return this.counts;
+    }
+
+    /**
+     * 获取带NBT的物品列表，只能在服务端线程上读取，不要修改。
      *
      * @return 物品列表
      */
-    public IItemList<IAEItemStack> getItems() {
-        if (this.items == null) {
-            this.items = AEApi.instance()
-                .storage()
-                .createPrimitiveItemList();
+    public IItemList<IAEItemStack> getTaggedItems() {
+        this.touch();
+        return this.tagged;
+    }
+
+    /**
+     * 确保物品已经加载，并记录访问时间。
+     */
+    private void touch() {
+        if (this.counts == null) {
+            this.load();
         }
-        return items;
+        this.lastAccess = System.currentTimeMillis();
+    }
+
+    /**
+     * 获取上次访问物品的时间。
+     *
+     * @return 上次访问的时间戳（毫秒）
+     */
+    public long getLastAccess() {
+        return this.lastAccess;
+    }
+
+    /**
+     * 释放已加载的物品，下次访问时重新通过加载器读取分片。调用前必须确保分片中的内容是最新的。
+     *
+     * @param loader 分片加载器
+     */
+    public void unload(Function<String, CellItemStorageData> loader) {
+        this.counts = null;
+        this.tagged = null;
+        this.deadTagged = 0;
+        this.loader = loader;
+        this.discardSnapshot();
+        this.updateFootprint();
+    }
+
+    /**
+     * 判断物品是否已经加载。
+     *
+     * @return 已加载时返回 true
+     */
+    public boolean isLoaded() {
+        return this.counts != null;
     }
 
     /**
-     * 判断存储元件是否为空。
+     * 判断存储元件是否为空，尚未加载时使用索引中的统计信息。
      *
      * @return 如果存储元件内没有物品，则返回true
      */
     public boolean isEmpty() {
-        return this.getItems()
-            .isEmpty();
+        return this.getStoredTypes() == 0;
+    }
+
+    /**
+     * 获取物品类型数量，尚未加载时返回索引中的值。
+     *
+     * @return 物品类型数量
+     */
+    public int getStoredTypes() {
+        return this.isLoaded() ? this.counts.size() + this.tagged.size() - this.deadTagged : this.indexedTypes;
+    }
+
+    /**
+     * 获取物品总数，尚未加载时返回索引中的值。
+     *
+     * @return 物品总数
+     */
+    public long getStoredCount() {
+        if (!this.isLoaded()) {
+            return this.indexedCount;
+        }
+        long count = 0;
+        for (int slot = 0; slot < this.counts.capacity(); slot++) {
+            if (this.counts.isUsed(slot)) {
+                count += this.counts.valueAt(slot);
+            }
+        }
+        for (final IAEItemStack ais : this.tagged) {
+            count += ais.getStackSize();
+        }
+        return count;
+    }
+
+    /**
+     * 更新索引中记录的统计信息。
+     *
+     * @param types 物品类型数量
+     * @param count 物品总数
+     */
+    public void setIndex(int types, long count) {
+        this.indexedTypes = types;
+        this.indexedCount = count;
+    }
+
+    /**
+     * 从索引条目创建尚未加载的硬盘。
+     *
+     * @param tag    索引条目
+     * @param loader 分片加载器
+     * @return 尚未加载的硬盘
+     */
+    public static CellItemStorageData readIndex(NBTTagCompound tag,
+        Function<String, CellItemStorageData> loader) {
+        final CellItemStorageData storage = new CellItemStorageData(tag.getString(NBTConstants.DISK_ID), loader);
+        storage.setIndex(tag.getInteger(NBTConstants.DISK_TYPES), tag.getLong(NBTConstants.DISK_COUNT));
+        storage.lastSeen = tag.getLong(NBTConstants.DISK_LAST_SEEN);
+        if (tag.hasKey(NBTConstants.DISK_AGGREGATES)) {
+            final NBTTagList aggregates = tag.getTagList(NBTConstants.DISK_AGGREGATES, Constants.NBT.TAG_COMPOUND);
+            storage.classCounts = new LongLongHashMap(aggregates.tagCount());
+            for (int i = 0; i < aggregates.tagCount(); i++) {
+                final NBTTagCompound entry = aggregates.getCompoundTagAt(i);
+                final int id = OreAggregates.classId(
+                    entry.getInteger(NBTConstants.AGGREGATE_TYPES),
+                    entry.getString(NBTConstants.AGGREGATE_MATERIAL));
+                storage.classCounts.addTo(id, entry.getLong(NBTConstants.AGGREGATE_COUNT));
+            }
+        }
+        return storage;
+    }
+
+    /**
+     * 将统计信息写入索引条目。已加载的硬盘按当前内容重新统计，自上次快照以来新分配或写入的硬盘也会出现在索引中。
+     *
+     * @return 索引条目，硬盘中没有物品时返回 null
+     */
+    public NBTTagCompound writeIndex() {
+        if (this.isLoaded()) {
+            this.setIndex(this.getStoredTypes(), this.getStoredCount());
+        }
+        if (this.indexedTypes <= 0) {
+            return null;
+        }
+        final NBTTagCompound tag = new NBTTagCompound();
+        tag.setString(NBTConstants.DISK_ID, this.diskID);
+        tag.setInteger(NBTConstants.DISK_TYPES, this.indexedTypes);
+        tag.setLong(NBTConstants.DISK_COUNT, this.indexedCount);
+        tag.setLong(NBTConstants.DISK_LAST_SEEN, this.lastSeen);
+        if (this.classCounts != null) {
+            final NBTTagList aggregates = new NBTTagList();
+            for (int slot = 0; slot < this.classCounts.capacity(); slot++) {
+                if (this.classCounts.isUsed(slot)) {
+                    final int id = (int) this.classCounts.keyAt(slot);
+                    final NBTTagCompound entry = new NBTTagCompound();
+                    entry.setInteger(NBTConstants.AGGREGATE_TYPES, OreAggregates.getMask(id));
+                    entry.setString(NBTConstants.AGGREGATE_MATERIAL, OreAggregates.getMaterialName(id));
+                    entry.setLong(NBTConstants.AGGREGATE_COUNT, this.classCounts.valueAt(slot));
+                    aggregates.appendTag(entry);
+                }
+            }
+            tag.setTag(NBTConstants.DISK_AGGREGATES, aggregates);
+        }
+        return tag;
+    }
+
+    /**
+     * 获取上次确认仍有元件引用该硬盘的世界时间。
+     *
+     * @return 世界时间（tick），未知时返回 0
+     */
+    public long getLastSeen() {
+        return this.lastSeen;
+    }
+
+    /**
+     * 记录硬盘在指定的世界时间仍被元件引用。
+     *
+     * @param worldTime 世界时间（tick）
+     */
+    public void markSeen(long worldTime) {
+        if (worldTime > this.lastSeen) {
+            this.lastSeen = worldTime;
+        }
+    }
+
+    /**
+     * 使用已经在其他线程读出的分片加载物品，已加载时不做任何事。
+     *
+     * @param shard 读出的分片，分片不存在时为 null
+     */
+    public void loadFrom(CellItemStorageData shard) {
+        if (this.counts == null) {
+            this.loader = id -> shard;
+            this.load();
+        }
+    }
+
+    /**
+     * 通过加载器读取分片，没有分片时创建空的数量表。
+     */
+    private void load() {
+        final CellItemStorageData loaded = this.loader != null ? this.loader.apply(this.diskID) : null;
+        this.loader = null;
+        this.discardSnapshot();
+
+        if (loaded != null && loaded.counts != null) {
+            this.counts = loaded.counts;
+            this.tagged = loaded.tagged;
+            this.deadTagged = loaded.deadTagged;
+            this.journalSeq = loaded.journalSeq;
+            this.setIndex(this.getStoredTypes(), this.getStoredCount());
+        } else {
+            this.counts = new LongLongHashMap();
+            this.tagged = AEApi.instance()
+                .storage()
+                .createPrimitiveItemList();
+        }
+        this.reclassify();
+        this.updateFootprint();
     }
 
     /**
@@ -66,6 +724,37 @@ public class CellItemStorageData {
         return this.diskID;
     }
 
+    /**
+     * 获取分片中已包含的日志段序号，尚未加载时会先读取分片。
+     *
+     * @return 日志段序号
+     */
+    public long getJournalSeq() {
+        if (this.counts == null) {
+            this.load();
+        }
+        return this.journalSeq;
+    }
+
+    /**
+     * 设置分片中已包含的日志段序号。
+     *
+     * @param journalSeq 日志段序号
+     */
+    public void setJournalSeq(long journalSeq) {
+        this.journalSeq = journalSeq;
+    }
+
+    /**
+     * 将一条数量变化应用到物品列表，用于重放日志。
+     *
+     * @param item  物品
+     * @param delta 数量变化，注入为正，提取为负
+     */
+    public void applyDelta(IAEItemStack item, long delta) {
+        this.add(item, delta);
+    }
+
     /**
      * 从NBT数据中读取元件存储实例
      *
@@ -73,8 +762,7 @@ public class CellItemStorageData {
      */
     public void readFromNBT(NBTTagList data) {
         for (final IAEItemStack ais : this.readList(data)) {
-            this.getItems()
-                .add(ais);
+            this.add(ais, ais.getStackSize());
         }
     }
 
@@ -84,7 +772,11 @@ public class CellItemStorageData {
      * @return 存储元件的NBT数据
      */
     public NBTBase writeToNBT() {
-        return writeList(this.getItems());
+        final IItemList<IAEItemStack> items = AEApi.instance()
+            .storage()
+            .createItemList();
+        this.forEach(items::add);
+        return writeList(items);
     }
 
     /**
@@ -0,0 +1,78 @@
+package moe.takochan.takotech.common.data;
+
+import appeng.api.storage.data.IAEItemStack;
+import appeng.api.storage.data.IItemList;
+
+/**
+ * 分批列出硬盘内容的游标。
+ * <p>
+ * 创建时只复制数量大于 0 的条目的键和数量（两个 long 数组），之后每次调用 {@link #next(IItemList, int)} 只为本批次创建物品堆栈，
+ * 可以把上万种物品的列出分摊到多个 tick。列出的是创建游标时的内容，不受之后的注入和提取影响。
+ * <p>
+ * 只能在服务端线程上使用。
+ */
+public class ItemListingCursor {
+
+    // 不带NBT的物品的键和数量
+    private final long[] keys;
+    private final long[] counts;
+    // 带NBT的物品副本
+    private final IAEItemStack[] tagged;
+    // 下一个要列出的位置
+    private int position;
+
+    ItemListingCursor(long[] keys, long[] counts, IAEItemStack[] tagged) {
+        this.keys = keys;
+        this.counts = counts;
+        this.tagged = tagged;
+    }
+
+    /**
+     * @return 游标包含的物品类型数量
+     */
+    public int size() {
+        return this.keys.length + this.tagged.length;
+    }
+
+    /**
+     * @return 还有未列出的物品时返回 true
+     */
+    public boolean hasNext() {
+        return this.position < this.size();
+    }
+
+    /**
+     * 列出下一批物品。
+     *
+     * @param out 输出列表
+     * @param max 本批次最多列出的物品类型数量
+     * @return 本批次实际加入输出列表的物品类型数量，已经无法解析的物品不计入
+     */
+    public int next(IItemList<IAEItemStack> out, int max) {
+        final int end = (int) Math.min(this.size(), (long) this.position + Math.max(0, max));
+        int listed = 0;
+        for (; this.position < end; this.position++) {
+            if (this.position < this.keys.length) {
+                final IAEItemStack ais = ItemPrototypes.create(this.keys[this.position], this.counts[this.position]);
+                if (ais != null) {
+                    out.add(ais);
+                    listed++;
+                }
+            } else {
+                out.add(this.tagged[this.position - this.keys.length].copy());
+                listed++;
+            }
+        }
+        return listed;
+    }
+
+    /**
+     * 列出剩余的全部物品。
+     *
+     * @param out 输出列表
+     * @return 实际加入输出列表的物品类型数量
+     */
+    public int drain(IItemList<IAEItemStack> out) {
+        return this.next(out, this.size() - this.position);
+    }
+}
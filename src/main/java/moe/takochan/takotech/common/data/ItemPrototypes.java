@@ -0,0 +1,56 @@
+package moe.takochan.takotech.common.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import appeng.api.storage.data.IAEItemStack;
+import moe.takochan.takotech.utils.LongLongHashMap;
+
+/**
+ * 不带NBT的物品堆栈原型。
+ * <p>
+ * 列出物品时从原型 {@link IAEItemStack#copy()} 出新的堆栈，比每次通过 {@code AEItemStack.create} 构建更便宜。 所有硬盘共享同一份原型，数量只与出现过的物品类型有关。
+ * <p>
+ * 只能在服务端线程上使用，IO 线程请使用 {@link CellItemStorageData#createStack(long, long)}。
+ */
+public class ItemPrototypes {
+
+    // 键 -> 原型在列表中的下标
+    private static final LongLongHashMap INDEX = new LongLongHashMap();
+    // 原型，物品不存在时为 null
+    private static final List<IAEItemStack> PROTOTYPES = new ArrayList<>();
+
+    private ItemPrototypes() {}
+
+    /**
+     * 根据键和数量创建物品堆栈。
+     *
+     * @param key   键，参见 {@link CellItemStorageData#key}
+     * @param count 数量
+     * @return 物品堆栈，物品不存在时返回 null
+     */
+    public static IAEItemStack create(long key, long count) {
+        long index = INDEX.get(key, -1);
+        if (index < 0) {
+            index = PROTOTYPES.size();
+            PROTOTYPES.add(CellItemStorageData.createStack(key, 1));
+            INDEX.put(key, index);
+        }
+
+        final IAEItemStack prototype = PROTOTYPES.get((int) index);
+        if (prototype == null) {
+            return null;
+        }
+        final IAEItemStack ais = prototype.copy();
+        ais.setStackSize(count);
+        return ais;
+    }
+
+    /**
+     * 清空所有原型，在世界卸载时调用。
+     */
+    public static void clear() {
+        INDEX.clear();
+        PROTOTYPES.clear();
+    }
+}
@@ -0,0 +1,304 @@
+package moe.takochan.takotech.common.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+
+import gregtech.api.enums.Materials;
+import gregtech.api.objects.ItemData;
+import gregtech.api.util.GTOreDictUnificator;
+import moe.takochan.takotech.common.item.ae.OreAdmissionTable;
+import moe.takochan.takotech.common.item.ae.OreStorageType;
+import moe.takochan.takotech.utils.LongLongHashMap;
+import moe.takochan.takotech.utils.OreMaterialIndex;
+
+/**
+ * 所有矿物存储元件的物品总数，按 {@link OreStorageType}、GT 材料以及两者的组合汇总。
+ * <p>
+ * 每种物品被归入一个分类（接受它的元件类型掩码和它的材料），分类编号在物品第一次出现时确定并缓存。 每个登记的硬盘记录自己在每个分类下的数量，
+ * 注入和提取时只更新该物品所属分类的计数，开销与硬盘大小无关。硬盘的分类计数随索引保存，未加载的硬盘也计入总数。
+ * <p>
+ * 矿物词典或通用类型的配置变化后，分类缓存在下一个服务端 tick 丢弃，已加载的硬盘按新的分类重新统计。
+ * <p>
+ * 除 {@link #invalidate()} 以外只能在服务端线程上使用。
+ */
+public class OreAggregates {
+
+    // 类型数量
+    private static final int TYPE_COUNT = OreStorageType.values().length;
+    // 物品键 -> 分类编号，没有分类的物品记为 NONE
+    private static final LongLongHashMap CLASS_OF = new LongLongHashMap();
+    // (材料编号 + 1) << 32 | 类型掩码 -> 分类编号
+    private static final LongLongHashMap CLASS_IDS = new LongLongHashMap();
+    // 按编号排列的分类
+    private static final List<OreClass> CLASSES = new ArrayList<>();
+    // 按编号排列的材料
+    private static final List<Materials> MATERIALS = new ArrayList<>();
+    private static final Map<Materials, Integer> MATERIAL_IDS = new LinkedHashMap<>();
+    private static final long NONE = -1;
+
+    // 每种类型的物品总数
+    private static final long[] TYPE_TOTALS = new long[TYPE_COUNT];
+    // 每种材料的物品总数，按材料编号排列
+    private static long[] materialTotals = new long[16];
+    // 每种 (材料, 类型) 组合的物品总数，下标为 材料编号 * TYPE_COUNT + 类型序号
+    private static long[] pairTotals = new long[16 * TYPE_COUNT];
+    // 分类是否需要在下一个 tick 重建
+    private static volatile boolean invalidated;
+
+    private OreAggregates() {}
+
+    /**
+     * 获取物品所属的分类，第一次查询时计算并缓存。
+     *
+     * @param key 物品键，参见 {@link CellItemStorageData#key}
+     * @return 分类编号，不属于任何元件类型且没有材料的物品返回负数
+     */
+    static int classOf(long key) {
+        long id = CLASS_OF.get(key, Long.MIN_VALUE);
+        if (id == Long.MIN_VALUE) {
+            id = classify(key);
+            CLASS_OF.put(key, id);
+        }
+        return (int) id;
+    }
+
+    private static long classify(long key) {
+        final Item item = CellItemStorageData.keyItem(key);
+        if (item == null) {
+            return NONE;
+        }
+        final int meta = CellItemStorageData.keyMeta(key);
+        final int mask = OreAdmissionTable.getMask(item, meta);
+        final Materials materials = materialOf(item, meta);
+        if (mask == 0 && materials == null) {
+            return NONE;
+        }
+        return classId(mask, materials);
+    }
+
+    private static Materials materialOf(Item item, int meta) {
+        final ItemData data = GTOreDictUnificator.getAssociation(new ItemStack(item, 1, meta));
+        if (data != null && data.mMaterial != null && data.mMaterial.mMaterial != null) {
+            return data.mMaterial.mMaterial;
+        }
+        // 其他模组注册的矿石没有 GT 关联
+        return OreMaterialIndex.getMaterial(item, meta);
+    }
+
+    /**
+     * 获取 (类型掩码, 材料) 对应的分类编号，不存在时创建。
+     *
+     * @param mask      接受物品的类型掩码，第 n 位对应序号为 n 的类型
+     * @param materials 材料，可以为 null
+     * @return 分类编号
+     */
+    static int classId(int mask, Materials materials) {
+        // 忽略不存在的类型，保存的掩码可能来自其他版本
+        mask &= (1 << TYPE_COUNT) - 1;
+        final int material = materials != null ? materialId(materials) : -1;
+        final long packed = ((long) (material + 1) << 32) | (mask & 0xFFFFFFFFL);
+        long id = CLASS_IDS.get(packed, -1);
+        if (id < 0) {
+            id = CLASSES.size();
+            CLASSES.add(new OreClass(mask, material));
+            CLASS_IDS.put(packed, id);
+        }
+        return (int) id;
+    }
+
+    /**
+     * 按保存的名称获取分类编号，用于读取索引。
+     *
+     * @param mask     类型掩码
+     * @param material 材料名称，空字符串表示没有材料
+     * @return 分类编号
+     */
+    static int classId(int mask, String material) {
+        Materials materials = material.isEmpty() ? null : Materials.get(material);
+        if (materials == Materials._NULL) {
+            materials = null;
+        }
+        return classId(mask, materials);
+    }
+
+    /**
+     * @param id 分类编号
+     * @return 分类的类型掩码
+     */
+    static int getMask(int id) {
+        return CLASSES.get(id).mask;
+    }
+
+    /**
+     * @param id 分类编号
+     * @return 分类的材料名称，没有材料时返回空字符串
+     */
+    static String getMaterialName(int id) {
+        final int material = CLASSES.get(id).material;
+        return material >= 0 ? MATERIALS.get(material).mName : "";
+    }
+
+    private static int materialId(Materials materials) {
+        Integer id = MATERIAL_IDS.get(materials);
+        if (id == null) {
+            id = MATERIALS.size();
+            MATERIALS.add(materials);
+            MATERIAL_IDS.put(materials, id);
+            if (id >= materialTotals.length) {
+                materialTotals = Arrays.copyOf(materialTotals, materialTotals.length * 2);
+                pairTotals = Arrays.copyOf(pairTotals, materialTotals.length * TYPE_COUNT);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * 把一个分类的数量变化计入总数。
+     *
+     * @param id    分类编号
+     * @param delta 数量变化
+     */
+    static void add(int id, long delta) {
+        final OreClass oreClass = CLASSES.get(id);
+        for (final int type : oreClass.types) {
+            TYPE_TOTALS[type] += delta;
+        }
+        if (oreClass.material >= 0) {
+            materialTotals[oreClass.material] += delta;
+            for (final int type : oreClass.types) {
+                pairTotals[oreClass.material * TYPE_COUNT + type] += delta;
+            }
+        }
+    }
+
+    /**
+     * 把一个硬盘的分类计数计入或移出总数。
+     *
+     * @param counts 分类编号 -> 数量，可以为 null
+     * @param sign   计入为 1，移出为 -1
+     */
+    static void apply(LongLongHashMap counts, int sign) {
+        if (counts == null) {
+            return;
+        }
+        for (int slot = 0; slot < counts.capacity(); slot++) {
+            if (counts.isUsed(slot)) {
+                add((int) counts.keyAt(slot), sign * counts.valueAt(slot));
+            }
+        }
+    }
+
+    /**
+     * 标记分类需要重建，矿物词典或配置变化时调用，可以在任意线程上调用。
+     */
+    public static void invalidate() {
+        invalidated = true;
+    }
+
+    /**
+     * 如果分类已被标记为需要重建，丢弃缓存的物品分类。调用方需要随后重新统计已加载的硬盘。
+     *
+     * @return 丢弃了缓存时返回 true
+     */
+    public static boolean consumeInvalidation() {
+        if (!invalidated) {
+            return false;
+        }
+        invalidated = false;
+        CLASS_OF.clear();
+        return true;
+    }
+
+    /**
+     * 清空所有统计和分类，在世界卸载时调用。
+     */
+    public static void reset() {
+        CLASS_OF.clear();
+        CLASS_IDS.clear();
+        CLASSES.clear();
+        MATERIALS.clear();
+        MATERIAL_IDS.clear();
+        Arrays.fill(TYPE_TOTALS, 0);
+        Arrays.fill(materialTotals, 0);
+        Arrays.fill(pairTotals, 0);
+        invalidated = false;
+    }
+
+    /**
+     * 获取可以存入指定类型元件的物品总数。
+     *
+     * @param type 元件类型
+     * @return 物品总数
+     */
+    public static long getTotal(OreStorageType type) {
+        return TYPE_TOTALS[type.ordinal()];
+    }
+
+    /**
+     * 获取指定材料的物品总数。
+     *
+     * @param materials 材料
+     * @return 物品总数
+     */
+    public static long getTotal(Materials materials) {
+        final Integer id = MATERIAL_IDS.get(materials);
+        return id != null ? materialTotals[id] : 0;
+    }
+
+    /**
+     * 获取指定材料中可以存入指定类型元件的物品总数。
+     *
+     * @param type      元件类型
+     * @param materials 材料
+     * @return 物品总数
+     */
+    public static long getTotal(OreStorageType type, Materials materials) {
+        final Integer id = MATERIAL_IDS.get(materials);
+        return id != null ? pairTotals[id * TYPE_COUNT + type.ordinal()] : 0;
+    }
+
+    /**
+     * 获取所有出现过的材料的物品总数。
+     *
+     * @return 材料 -> 物品总数，不包含总数为 0 的材料
+     */
+    public static Map<Materials, Long> getMaterialTotals() {
+        final Map<Materials, Long> result = new LinkedHashMap<>();
+        for (int id = 0; id < MATERIALS.size(); id++) {
+            if (materialTotals[id] != 0) {
+                result.put(MATERIALS.get(id), materialTotals[id]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 接受物品的类型掩码和物品的材料。
+     */
+    private static class OreClass {
+
+        private final int mask;
+        // 材料编号，没有材料时为 -1
+        private final int material;
+        // 掩码中的类型序号
+        private final int[] types;
+
+        private OreClass(int mask, int material) {
+            this.mask = mask;
+            this.material = material;
+            this.types = new int[Integer.bitCount(mask)];
+            int n = 0;
+            for (int type = 0; type < TYPE_COUNT; type++) {
+                if ((mask & (1 << type)) != 0) {
+                    this.types[n++] = type;
+                }
+            }
+        }
+    }
+}
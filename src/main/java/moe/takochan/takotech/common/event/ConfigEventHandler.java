@@ -0,0 +1,26 @@
+package moe.takochan.takotech.common.event;
+
+import cpw.mods.fml.client.event.ConfigChangedEvent;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import moe.takochan.takotech.common.Reference;
+import moe.takochan.takotech.common.item.ae.OreAdmissionTable;
+import moe.takochan.takotech.common.item.ae.OreStorageType;
+
+public class ConfigEventHandler {
+
+    /**
+     * 配置修改后丢弃根据旧配置编译的矿典匹配器，并按新配置重建准入表。
+     * <p>
+     * 这个事件只由客户端的配置界面触发。服务端重新读取或同步配置时不会触发，此时由
+     * {@link OreAdmissionTable#getMask} 发现准入表记录的通用类型配置与当前配置不同，在后台重建。
+     *
+     * @param event 配置修改事件
+     */
+    @SubscribeEvent
+    public void configChanged(ConfigChangedEvent.OnConfigChangedEvent event) {
+        if (Reference.MODID.equals(event.modID)) {
+            OreStorageType.invalidate();
+            OreAdmissionTable.refresh();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package moe.takochan.takotech.common.event;
+
+import net.minecraftforge.oredict.OreDictionary;
+
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import moe.takochan.takotech.common.data.OreAggregates;
+import moe.takochan.takotech.common.item.ae.OreAdmissionTable;
+import moe.takochan.takotech.utils.OreMaterialIndex;
+
+public class OreDictEventHandler {
+
+    /**
+     * @param event 矿物词典注册事件
+     */
+    @SubscribeEvent
+    public void oreRegister(OreDictionary.OreRegisterEvent event) {
+        OreAdmissionTable.register(event.Name, event.Ore);
+        OreMaterialIndex.register(event.Name, event.Ore);
+        OreAggregates.invalidate();
+    }
+}
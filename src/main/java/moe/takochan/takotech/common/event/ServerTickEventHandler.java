@@ -0,0 +1,24 @@
+package moe.takochan.takotech.common.event;
+
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+import moe.takochan.takotech.common.scheduler.TakoScheduler;
+import moe.takochan.takotech.common.storage.CellItemSavedData;
+import moe.takochan.takotech.common.storage.TakoCellHandler;
+import moe.takochan.takotech.common.storage.inventory.OreStorageCellInventory;
+
+public class ServerTickEventHandler {
+
+    /**
+     * @param event 服务端 tick 事件
+     */
+    @SubscribeEvent
+    public void serverTick(TickEvent.ServerTickEvent event) {
+        if (event.phase == TickEvent.Phase.END) {
+            OreStorageCellInventory.flushPendingSaves();
+            CellItemSavedData.serverTick();
+            TakoCellHandler.tick();
+            TakoScheduler.tick();
+        }
+    }
+}
@@ -4,8 +4,14 @@ import net.minecraftforge.event.world.WorldEvent;
 
 import cpw.mods.fml.common.eventhandler.SubscribeEvent;
 import moe.takochan.takotech.TakoTechMod;
+import moe.takochan.takotech.common.data.ItemPrototypes;
+import moe.takochan.takotech.common.item.ae.OreAdmissionTable;
+import moe.takochan.takotech.common.scheduler.TakoScheduler;
 import moe.takochan.takotech.common.storage.CellItemSavedData;
+import moe.takochan.takotech.common.storage.TakoCellHandler;
+import moe.takochan.takotech.common.storage.inventory.OreStorageCellInventory;
 import moe.takochan.takotech.utils.CommonUtils;
+import moe.takochan.takotech.utils.OreMaterialIndex;
 
 public class WorldEventHandler {
 
@@ -15,8 +21,28 @@ public class WorldEventHandler {
     @SubscribeEvent
     public void worldLoad(WorldEvent.Load event) {
         if (CommonUtils.isServer() && event.world.provider.dimensionId == 0) {
+            // 物品ID可能在加载存档时重新映射，按物品ID建立的表需要在第一个 tick 之前重建
+            ItemPrototypes.clear();
+            OreAdmissionTable.rebuild();
+            OreMaterialIndex.rebuild();
             CellItemSavedData.init(event.world);
             TakoTechMod.LOG.info("StorageCellData initialized successfully!");
         }
     }
+
+    /**
+     * @param event 世界卸载事件
+     */
+    @SubscribeEvent
+    public void worldUnload(WorldEvent.Unload event) {
+        if (CommonUtils.isServer() && event.world.provider.dimensionId == 0) {
+            // 世界卸载前已经完成最后一次保存，这里等待后台写入全部落盘
+            OreStorageCellInventory.flushPendingSaves();
+            TakoCellHandler.clearCache();
+            CellItemSavedData.close();
+            TakoScheduler.clear();
+        } else if (event.world.isRemote) {
+            TakoCellHandler.clearClientCache();
+        }
+    }
 }
@@ -1,12 +1,8 @@
 package moe.takochan.takotech.common.item.ae;
 
 import java.text.NumberFormat;
-import java.util.Collection;
-import java.util.EnumMap;
 import java.util.EnumSet;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import net.minecraft.client.gui.GuiScreen;
@@ -35,8 +31,6 @@ import appeng.core.localization.GuiText;
 import appeng.items.contents.CellConfig;
 import appeng.items.contents.CellUpgrades;
 import appeng.util.item.AEItemStack;
-import appeng.util.item.OreHelper;
-import appeng.util.item.OreReference;
 import cpw.mods.fml.common.registry.GameRegistry;
 import cpw.mods.fml.relauncher.Side;
 import cpw.mods.fml.relauncher.SideOnly;
@@ -63,9 +57,6 @@ public class ItemOreStorageCell extends BaseAECellItem implements IStorageCell,
      */
     private static final int MAX_ORE_TYPES = 114514;
 
-    private static final EnumMap<OreStorageType, Map<String, Boolean>> oreWhitelistCache = new EnumMap<>(
-        OreStorageType.class);
-
     private final IIcon[] overlayIcons = new IIcon[OreStorageType.values().length];
 
     private final int perType = 1;
@@ -289,22 +280,8 @@ public class ItemOreStorageCell extends BaseAECellItem implements IStorageCell,
         if (!(requestedAddition instanceof AEItemStack itemStack)) {
             return true;
         }
-        // 获取矿物信息
-        OreReference oreReference = OreHelper.INSTANCE.isOre(itemStack.getItemStack());
-        if (oreReference == null) {
-            return true;
-        }
-        // 存在矿典标签，获列表
-        Collection<String> oreDefs = oreReference.getEquivalents();
-        OreStorageType storageType = getStorageType(cellItem);
-
-        for (String oreDef : oreDefs) {
-            if (isOreAllowed(storageType, oreDef)) {
-                // 白名单命中
-                return false;
-            }
-        }
-        return true;
+        // 通过准入表判断任一矿典标签是否命中白名单
+        return !OreAdmissionTable.accepts(getStorageType(cellItem), itemStack.getItem(), itemStack.getItemDamage());
     }
 
     /**
@@ -459,28 +436,4 @@ public class ItemOreStorageCell extends BaseAECellItem implements IStorageCell,
     private OreStorageType getStorageType(ItemStack itemStack) {
         return OreStorageType.byMeta(itemStack.getItemDamage());
     }
-
-    /**
-     * 判断某个 oreDef 是否被指定的存储类型允许。
-     * <p>
-     * 使用 EnumMap 缓存每个 OreStorageType 对每个 oreDef 的判断结果， 避免重复进行 startsWith 匹配。
-     * <p>
-     * 匹配逻辑： - 若前缀匹配 Excluded，则视为不允许（黑名单优先） - 否则，若前缀匹配 Included，则视为允许 - 其余情况默认视为不允许
-     *
-     * @param type   存储元件类型
-     * @param oreDef 矿典标签（如 "oreIron"）
-     * @return 是否允许该矿典标签被存入此元件
-     */
-    private boolean isOreAllowed(OreStorageType type, String oreDef) {
-        return oreWhitelistCache.computeIfAbsent(type, t -> new HashMap<>())
-            .computeIfAbsent(oreDef, def -> {
-                for (String exclude : type.getExcludedPrefixes()) {
-                    if (def.startsWith(exclude)) return false;
-                }
-                for (String include : type.getIncludedPrefixes()) {
-                    if (def.startsWith(include)) return true;
-                }
-                return false;
-            });
-    }
 }
@@ -0,0 +1,245 @@
+package moe.takochan.takotech.common.item.ae;
+
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraftforge.oredict.OreDictionary;
+
+import moe.takochan.takotech.common.data.CellItemStorageData;
+import moe.takochan.takotech.common.data.OreAggregates;
+import moe.takochan.takotech.common.scheduler.ITakoJob;
+import moe.takochan.takotech.common.scheduler.TakoScheduler;
+import moe.takochan.takotech.config.TakoTechConfig;
+import moe.takochan.takotech.utils.CommonUtils;
+import moe.takochan.takotech.utils.LongLongHashMap;
+
+/**
+ * 矿物存储元件的准入表。
+ * <p>
+ * 预先把每个 (物品ID, 元数据) 映射为接受它的 {@link OreStorageType} 掩码（第 n 位对应 ordinal 为 n 的类型）， 注入时只需一次查表，不再遍历矿典名称或进行字符串匹配。
+ * <p>
+ * 表在 postInit 和世界加载（物品ID可能重新映射）时构建，之后通过 {@link OreDictionary.OreRegisterEvent} 增量更新；通用类型依赖的 {@link TakoTechConfig#oreDefs} 发生变化时会整体重建。
+ * 服务端的重建交给 {@link TakoScheduler} 分多个 tick 完成，完成之前继续使用旧表。
+ * <p>
+ * 已经发布的表不会再被修改，增量更新时复制一份新表再整体替换，读取方不需要加锁。
+ */
+public class OreAdmissionTable {
+
+    // 当前的准入表，配置变化时整体替换
+    private static volatile Table table;
+    // 服务端的后台重建任务
+    private static final RebuildJob REBUILD = new RebuildJob();
+
+    private OreAdmissionTable() {}
+
+    /**
+     * 根据当前的矿物词典重新构建准入表。
+     */
+    public static void rebuild() {
+        final String[] oreDefs = TakoTechConfig.oreDefs;
+        final LongLongHashMap masks = new LongLongHashMap();
+        for (final String name : OreDictionary.getOreNames()) {
+            final int mask = maskOf(name);
+            if (mask == 0) {
+                continue;
+            }
+            for (final ItemStack ore : OreDictionary.getOres(name)) {
+                put(masks, ore, mask);
+            }
+        }
+        table = new Table(masks, oreDefs);
+        OreAggregates.invalidate();
+    }
+
+    /**
+     * 在服务端后台重建准入表，已经在重建时不会重新开始。只能在服务端线程上调用。
+     */
+    public static void scheduleRebuild() {
+        if (!TakoScheduler.isScheduled(REBUILD)) {
+            REBUILD.start();
+            TakoScheduler.submit(REBUILD);
+        }
+    }
+
+    /**
+     * 通用类型的配置与构建准入表时不同时重建准入表，服务端在后台重建，完成之前继续使用旧表。
+     */
+    public static void refresh() {
+        final Table current = table;
+        if (current == null || current.oreDefs == TakoTechConfig.oreDefs) {
+            return;
+        }
+        if (CommonUtils.isServer()) {
+            scheduleRebuild();
+        } else {
+            rebuild();
+        }
+    }
+
+    /**
+     * 记录新注册的矿典条目，在准入表构建之前注册的条目会在构建时一并处理。
+     * <p>
+     * 复制当前的表写入新条目后整体替换，条目已经包含在表中时不复制。
+     *
+     * @param name 矿典名称
+     * @param ore  注册的物品
+     */
+    public static synchronized void register(String name, ItemStack ore) {
+        final Table current = table;
+        if (current == null) {
+            return;
+        }
+        final int mask = maskOf(name);
+        if (mask == 0 || ore == null || ore.getItem() == null) {
+            return;
+        }
+        final long key = CellItemStorageData.key(ore.getItem(), ore.getItemDamage());
+        final long old = current.masks.get(key, 0);
+        if ((old | mask) != old) {
+            final LongLongHashMap masks = current.masks.copy();
+            masks.put(key, old | mask);
+            table = new Table(masks, current.oreDefs);
+        }
+        // 正在重建的表可能已经跳过了这个矿典名称
+        REBUILD.register(ore, mask);
+    }
+
+    /**
+     * 判断物品是否可以存入指定类型的元件。
+     *
+     * @param type 元件类型
+     * @param item 物品
+     * @param meta 元数据
+     * @return 可以存入时返回 true
+     */
+    public static boolean accepts(OreStorageType type, Item item, int meta) {
+        return (getMask(item, meta) & bit(type)) != 0;
+    }
+
+    /**
+     * 获取接受物品的类型掩码。
+     *
+     * @param item 物品
+     * @param meta 元数据
+     * @return 类型掩码，第 n 位对应 ordinal 为 n 的类型
+     */
+    public static int getMask(Item item, int meta) {
+        Table current = table;
+        if (current == null) {
+            rebuild();
+            current = table;
+        } else if (current.oreDefs != TakoTechConfig.oreDefs) {
+            refresh();
+            current = table;
+        }
+        return (int) (current.masks.get(CellItemStorageData.key(item, meta), 0)
+            | current.masks.get(CellItemStorageData.key(item, OreDictionary.WILDCARD_VALUE), 0));
+    }
+
+    /**
+     * 计算接受某个矿典名称的类型掩码。
+     */
+    private static int maskOf(String name) {
+        int mask = 0;
+        for (final OreStorageType type : OreStorageType.values()) {
+            if (type.accepts(name)) {
+                mask |= bit(type);
+            }
+        }
+        return mask;
+    }
+
+    private static int bit(OreStorageType type) {
+        return 1 << type.ordinal();
+    }
+
+    private static void put(LongLongHashMap table, ItemStack ore, int mask) {
+        if (ore == null || ore.getItem() == null) {
+            return;
+        }
+        final long key = CellItemStorageData.key(ore.getItem(), ore.getItemDamage());
+        table.put(key, table.get(key, 0) | mask);
+    }
+
+    /**
+     * 分批遍历矿物词典重建准入表，完成后替换当前的准入表。
+     */
+    private static class RebuildJob implements ITakoJob {
+
+        // 每一步处理的矿典名称数量
+        private static final int STEP_SIZE = 64;
+
+        private String[] names = new String[0];
+        private int cursor;
+        private String[] oreDefs;
+        private LongLongHashMap masks;
+
+        private void start() {
+            this.oreDefs = TakoTechConfig.oreDefs;
+            this.names = OreDictionary.getOreNames();
+            this.cursor = 0;
+            this.masks = new LongLongHashMap();
+        }
+
+        private void register(ItemStack ore, int mask) {
+            if (this.masks != null) {
+                put(this.masks, ore, mask);
+            }
+        }
+
+        @Override
+        public String getName() {
+            return "Ore admission table rebuild";
+        }
+
+        @Override
+        public int getPriority() {
+            return 10;
+        }
+
+        @Override
+        public boolean step() {
+            final int end = Math.min(this.cursor + STEP_SIZE, this.names.length);
+            for (; this.cursor < end; this.cursor++) {
+                final String name = this.names[this.cursor];
+                final int mask = maskOf(name);
+                if (mask == 0) {
+                    continue;
+                }
+                for (final ItemStack ore : OreDictionary.getOres(name)) {
+                    put(this.masks, ore, mask);
+                }
+            }
+            if (this.cursor < this.names.length) {
+                return true;
+            }
+
+            // 重建期间配置再次变化时，下次使用时会重新开始
+            table = new Table(this.masks, this.oreDefs);
+            OreAggregates.invalidate();
+            this.masks = null;
+            this.names = new String[0];
+            return false;
+        }
+
+        @Override
+        public float getProgress() {
+            return this.names.length > 0 ? (float) this.cursor / this.names.length : -1;
+        }
+    }
+
+    /**
+     * 准入表及构建时使用的通用类型配置。
+     */
+    private static class Table {
+
+        // (物品ID, 元数据) -> 类型掩码，通配元数据的矿典条目使用 WILDCARD_VALUE 作为元数据
+        private final LongLongHashMap masks;
+        // 构建准入表时使用的通用类型配置
+        private final String[] oreDefs;
+
+        private Table(LongLongHashMap masks, String[] oreDefs) {
+            this.masks = masks;
+            this.oreDefs = oreDefs;
+        }
+    }
+}
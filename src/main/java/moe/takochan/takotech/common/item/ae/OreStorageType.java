@@ -1,11 +1,12 @@
 package moe.takochan.takotech.common.item.ae;
 
 import moe.takochan.takotech.config.TakoTechConfig;
+import moe.takochan.takotech.utils.OreNameMatcher;
 
 /**
  * 表示矿物存储元件的分类类型。
  * <p>
- * 每种类型限定可存储的矿物词典前缀（includedPrefixes）， 并可选择性排除某些前缀（excludedPrefixes）。 这些前缀仅在构造时解析一次，避免运行时反复 split 操作。
+ * 每种类型限定可存储的矿物词典前缀（includedPrefixes）， 并可选择性排除某些前缀（excludedPrefixes）。 这些前缀仅在构造时编译一次为 {@link OreNameMatcher}，除前缀外也支持通配符、正则表达式和以 "!" 开头的排除写法。
  * <p>
  * 通常通过 {@link #byMeta(int)} 以物品的 metadata 获取对应的类型。 用于 {@link ItemOreStorageCell} 判断某个物品是否可被该元件接收。
  */
@@ -76,6 +77,16 @@ public enum OreStorageType {
      */
     private final boolean registerRecipe;
 
+    /**
+     * 编译后的匹配器，GENERAL 类型的匹配器随配置变化，单独存放在 {@link #general} 中。
+     */
+    private final OreNameMatcher matcher;
+
+    /**
+     * GENERAL 类型当前使用的匹配器，配置变化时整体替换。
+     */
+    private static volatile CompiledDefs general;
+
     /**
      * 构造方法，在加载阶段解析前缀字符串为 List。
      *
@@ -89,6 +100,7 @@ public enum OreStorageType {
         this.includedPrefixes = parseList(includeStr);
         this.excludedPrefixes = parseList(excludeStr);
         this.registerRecipe = registerRecipe;
+        this.matcher = OreNameMatcher.compile(this.includedPrefixes, this.excludedPrefixes);
     }
 
     /**
@@ -134,6 +146,43 @@ public enum OreStorageType {
         return excludedPrefixes;
     }
 
+    /**
+     * 判断某个矿典名称是否被该类型允许，排除优先于包含。
+     *
+     * @param oreDef 矿典标签（如 "oreIron"）
+     * @return 是否允许该矿典标签被存入此元件
+     */
+    public boolean accepts(String oreDef) {
+        return this.getMatcher()
+            .matches(oreDef);
+    }
+
+    /**
+     * 获取该类型的匹配器，GENERAL 类型在配置中的 oreDefs 被替换后会重新编译。
+     *
+     * @return 匹配器
+     */
+    private OreNameMatcher getMatcher() {
+        if (this != GENERAL) {
+            return this.matcher;
+        }
+
+        final String[] defs = TakoTechConfig.oreDefs;
+        CompiledDefs compiled = general;
+        if (compiled == null || compiled.defs != defs) {
+            compiled = new CompiledDefs(defs, OreNameMatcher.compile(defs, this.excludedPrefixes));
+            general = compiled;
+        }
+        return compiled.matcher;
+    }
+
+    /**
+     * 丢弃 GENERAL 类型编译好的匹配器，下次使用时按当前配置重新编译。
+     */
+    public static void invalidate() {
+        general = null;
+    }
+
     /**
      * 根据 metadata 查找对应的类型。
      *
@@ -158,4 +207,18 @@ public enum OreStorageType {
     public boolean isRegisterRecipe() {
         return registerRecipe;
     }
+
+    /**
+     * 编译好的配置及其来源，整体替换以保证读取到的两者一致。
+     */
+    private static class CompiledDefs {
+
+        private final String[] defs;
+        private final OreNameMatcher matcher;
+
+        private CompiledDefs(String[] defs, OreNameMatcher matcher) {
+            this.defs = defs;
+            this.matcher = matcher;
+        }
+    }
 }
@@ -0,0 +1,39 @@
+package moe.takochan.takotech.common.scheduler;
+
+/**
+ * 由 {@link TakoScheduler} 分多个 tick 执行的后台任务。
+ * <p>
+ * 任务需要把工作拆成足够小的步骤，每次 {@link #step()} 只执行一步并保存进度，下次调用时从上次的位置继续。
+ */
+public interface ITakoJob {
+
+    /**
+     * @return 任务名称，用于日志和进度报告
+     */
+    String getName();
+
+    /**
+     * 获取任务的优先级，优先级高的任务先执行。
+     *
+     * @return 优先级
+     */
+    default int getPriority() {
+        return 0;
+    }
+
+    /**
+     * 执行一步。
+     *
+     * @return 还有剩余工作时返回 true，任务完成时返回 false
+     */
+    boolean step();
+
+    /**
+     * 获取任务进度。
+     *
+     * @return 0 到 1 之间的进度，无法估计时返回负数
+     */
+    default float getProgress() {
+        return -1;
+    }
+}
@@ -0,0 +1,178 @@
+package moe.takochan.takotech.common.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import moe.takochan.takotech.TakoTechMod;
+import moe.takochan.takotech.config.TakoTechConfig;
+
+/**
+ * 服务端的协作式任务调度器。
+ * <p>
+ * 每个服务端 tick 结束时按加权轮转执行任务的步骤：每一轮按优先级从高到低让每个任务执行若干步，优先级为 n 的任务每轮执行 max(1, n + 1) 步，
+ * 因此低优先级的任务也总能推进，不会被反复提交的高优先级任务饿死。累计耗时达到 {@link TakoTechConfig#schedulerBudgetMs} 后不再开始新的步骤，
+ * 下一个 tick 从中断的位置继续这一轮。
+ * <p>
+ * 只能在服务端线程上使用。
+ */
+public class TakoScheduler {
+
+    // 等待执行的任务，按优先级从高到低排列，优先级相同时按提交顺序
+    private static final List<Entry> JOBS = new ArrayList<>();
+    // 调用 tick 的次数，用于统计任务跨越的 tick 数
+    private static long tickCounter;
+    // 本轮中下一个执行的任务的位置
+    private static int cursor;
+
+    private TakoScheduler() {}
+
+    /**
+     * 提交任务，已经提交的任务不会重复加入。
+     *
+     * @param job 任务
+     */
+    public static void submit(ITakoJob job) {
+        if (isScheduled(job)) {
+            return;
+        }
+        final Entry entry = new Entry(job);
+        int index = JOBS.size();
+        while (index > 0 && JOBS.get(index - 1).job.getPriority() < job.getPriority()) {
+            index--;
+        }
+        JOBS.add(index, entry);
+        // 插入到本轮已经执行过的位置时，保持下一个执行的任务不变
+        if (index < cursor) {
+            cursor++;
+        }
+    }
+
+    /**
+     * 取消尚未完成的任务。
+     *
+     * @param job 任务
+     */
+    public static void cancel(ITakoJob job) {
+        for (int i = 0; i < JOBS.size(); i++) {
+            if (JOBS.get(i).job == job) {
+                remove(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 移除任务，保持下一个执行的任务不变。
+     */
+    private static void remove(int index) {
+        JOBS.remove(index);
+        if (index < cursor) {
+            cursor--;
+        }
+    }
+
+    /**
+     * 判断任务是否已经提交且尚未完成。
+     *
+     * @param job 任务
+     * @return 尚未完成时返回 true
+     */
+    public static boolean isScheduled(ITakoJob job) {
+        for (final Entry entry : JOBS) {
+            if (entry.job == job) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 取消所有任务，在世界卸载时调用。
+     */
+    public static void clear() {
+        JOBS.clear();
+        cursor = 0;
+    }
+
+    /**
+     * 获取所有尚未完成的任务的进度，供 {@code /takotech jobs} 显示。
+     *
+     * @return 每个任务一行，包含名称、进度和已经执行的 tick 数
+     */
+    public static List<String> getStatus() {
+        final List<String> status = new ArrayList<>(JOBS.size());
+        for (final Entry entry : JOBS) {
+            final float progress = entry.job.getProgress();
+            status.add(
+                String.format(
+                    "%s: %s (%d ticks)",
+                    entry.job.getName(),
+                    progress < 0 ? "?" : String.format("%.0f%%", progress * 100),
+                    entry.ticks));
+        }
+        return status;
+    }
+
+    /**
+     * 在预算内执行任务，每个服务端 tick 调用一次。
+     */
+    public static void tick() {
+        final long budget = TakoTechConfig.schedulerBudgetMs * 1_000_000L;
+        final long start = System.nanoTime();
+        while (!JOBS.isEmpty() && System.nanoTime() - start < budget) {
+            if (cursor >= JOBS.size()) {
+                // 开始新的一轮
+                cursor = 0;
+            }
+
+            final Entry entry = JOBS.get(cursor);
+            if (entry.lastTick != tickCounter) {
+                entry.lastTick = tickCounter;
+                entry.ticks++;
+            }
+            if (entry.remaining <= 0) {
+                entry.remaining = Math.max(1, entry.job.getPriority() + 1);
+            }
+
+            boolean more;
+            try {
+                more = entry.job.step();
+            } catch (RuntimeException e) {
+                TakoTechMod.LOG.error("Scheduled job {} failed", entry.job.getName(), e);
+                more = false;
+            }
+            entry.remaining--;
+
+            // 任务在执行中可能取消了自己或提交了新任务，重新定位
+            final int current = JOBS.indexOf(entry);
+            if (!more) {
+                if (current >= 0) {
+                    remove(current);
+                }
+                TakoTechMod.LOG.debug("Scheduled job {} finished in {} ticks", entry.job.getName(), entry.ticks);
+            } else if (current >= 0) {
+                // 用完本轮的步数后轮到下一个任务
+                cursor = entry.remaining > 0 ? current : current + 1;
+            }
+        }
+        tickCounter++;
+    }
+
+    /**
+     * 已提交的任务及其执行统计。
+     */
+    private static class Entry {
+
+        private final ITakoJob job;
+        // 任务执行过的 tick 数
+        private int ticks;
+        // 上一次执行任务的 tick
+        private long lastTick = -1;
+        // 本轮剩余的步数
+        private int remaining;
+
+        private Entry(ITakoJob job) {
+            this.job = job;
+        }
+    }
+}
@@ -1,8 +1,26 @@
 package moe.takochan.takotech.common.storage;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.GZIPInputStream;
 
 import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NBTTagCompound;
@@ -12,21 +30,107 @@ import net.minecraft.world.WorldSavedData;
 import net.minecraft.world.storage.MapStorage;
 import net.minecraftforge.common.util.Constants;
 
+import appeng.api.storage.data.IAEItemStack;
+import appeng.util.item.AEItemStack;
+import moe.takochan.takotech.TakoTechMod;
 import moe.takochan.takotech.common.Reference;
+import moe.takochan.takotech.common.data.CellHeapGovernor;
+import moe.takochan.takotech.common.data.CellItemSnapshot;
 import moe.takochan.takotech.common.data.CellItemStorageData;
+import moe.takochan.takotech.common.data.OreAggregates;
 import moe.takochan.takotech.common.item.BaseAECellItem;
+import moe.takochan.takotech.common.scheduler.ITakoJob;
+import moe.takochan.takotech.common.scheduler.TakoScheduler;
+import moe.takochan.takotech.common.storage.disk.CellDiskDecoder;
+import moe.takochan.takotech.common.storage.disk.CellDiskIO;
+import moe.takochan.takotech.common.storage.disk.CellDiskSnapshot;
+import moe.takochan.takotech.common.storage.disk.CellDiskStore;
+import moe.takochan.takotech.common.storage.disk.CellJournal;
+import moe.takochan.takotech.common.storage.disk.NBTStreamReader;
+import moe.takochan.takotech.config.OreStorageCellConfig;
 import moe.takochan.takotech.constants.NBTConstants;
 import moe.takochan.takotech.utils.CommonUtils;
 
 /**
  * `StorageComponentSavedData` 类负责管理存储元件数据。 它继承自 `WorldSavedData`，用于保存特定于世界的存储元件数据。 这些数据是持久化的，可以跨世界加载和保存。
+ * <p>
+ * 硬盘内容按硬盘ID分片保存在 {@link CellDiskStore} 中，`TakoTech_Cell` 本身只保留格式版本和硬盘索引（硬盘ID、物品类型数量和物品总数）。 加载世界时只读取索引，硬盘内容在第一次访问时才从分片读取。
+ * 旧版本写在 `disk_list` 中的数据会在加载时读入，并在下一次保存时迁移为分片。
+ * <p>
+ * 保存时在服务端线程上为发生变化的硬盘创建快照，编码和写入交给 {@link CellDiskIO} 在后台完成。
+ * <p>
+ * 启用变更日志时，每次注入和提取都会记入 {@link CellJournal}，自动保存只追加日志，发生变化的硬盘由定期压缩写入分片。
+ * <p>
+ * 长时间未访问的硬盘会从内存中卸载，只保留索引信息，下次访问时重新读取分片。
+ * <p>
+ * 新元件在第一次成功注入时才分配硬盘ID，之前的查询不会创建硬盘。内容已经清空并写入分片的硬盘会被回收，元件再次注入时重新登记。
+ * <p>
+ * 每个硬盘记录上次确认仍被元件引用的世界时间，元件被访问或被 {@link CellReferenceScanner} 在已加载的物品栏中找到时更新。
+ * 超过宽限期没有被引用的硬盘视为孤立硬盘，分片被归档并从索引中移除，归档的硬盘在元件再次出现时自动恢复。
+ * <p>
+ * 已加载硬盘的内容发生变化后由 {@link TakoScheduler} 在预算内发布为新版本的 {@link CellItemSnapshot}，其他线程通过
+ * {@link #getSnapshot(String)} 读取。定期压缩同样交给 {@link TakoScheduler} 分批完成，只有保存和卸载世界时才同步压缩。
  */
 public class CellItemSavedData extends WorldSavedData {
 
     private final static String DATA_NAME = Reference.MODID + "_Cell";
 
+    // 当前的存储格式版本
+    private final static int FORMAT_VERSION = 2;
+    // 变更日志目录
+    private final static String JOURNAL_DIR = "journal";
+    // 检查冷硬盘的间隔（tick）
+    private final static int EVICT_INTERVAL_TICKS = 20 * 30;
+    // 每小时的 tick 数
+    private final static long TICKS_PER_HOUR = 20 * 60 * 60;
+    // 流式读取数据文件时的缓冲区大小
+    private final static int STREAM_BUFFER_SIZE = 64 * 1024;
+    // 检查内存预算的间隔（tick）
+    private final static int BUDGET_INTERVAL_TICKS = 20 * 5;
+
     private static CellItemSavedData INSTANCE;
+    // 已发布的硬盘快照，可以在任意线程上读取
+    private static final Map<String, CellItemSnapshot> SNAPSHOTS = new ConcurrentHashMap<>();
+    // 已知的硬盘，未访问过的硬盘只包含索引信息
     private final Map<String, CellItemStorageData> disks = new HashMap<>();
+    // 自上次保存以来发生变化的硬盘
+    private final Set<CellItemStorageData> dirtyDisks = new LinkedHashSet<>();
+    // 需要发布快照的硬盘
+    private final Set<CellItemStorageData> snapshotDisks = new LinkedHashSet<>();
+    // 已回收的空硬盘，库存仍持有时再次访问会重新登记同一个实例
+    private final Map<String, WeakReference<CellItemStorageData>> reclaimed = new HashMap<>();
+    // 写入失败、需要在下次保存时重试的硬盘
+    private final Queue<String> failedWrites = new ConcurrentLinkedQueue<>();
+    // 查找仍被引用的硬盘
+    private final CellReferenceScanner scanner = new CellReferenceScanner(this);
+    // 回收和卸载硬盘的维护任务
+    private final MaintenanceJob maintenance = new MaintenanceJob();
+    // 定期压缩任务
+    private final CompactionJob compaction = new CompactionJob();
+    // 发布快照的任务
+    private final SnapshotJob snapshotPublisher = new SnapshotJob();
+    // 用于获取世界时间的主世界
+    private World world;
+    // 分片存储
+    private CellDiskStore store;
+    // 后台 IO 线程
+    private CellDiskIO io;
+    // 变更日志
+    private CellJournal journal;
+    // 上次保存时的日志段序号
+    private long journalSeq;
+    // 是否有旧版本数据尚未迁移为分片
+    private boolean migrating;
+    // 距离下次写入日志的 tick 数
+    private int flushCountdown;
+    // 距离下次检查冷硬盘的 tick 数
+    private int evictCountdown = EVICT_INTERVAL_TICKS;
+    // 距离下次检查内存预算的 tick 数
+    private int budgetCountdown = BUDGET_INTERVAL_TICKS;
+    // 上次压缩的时间
+    private long lastCompact;
+    // 上一个 tick 是否开启了快照，开启时为已加载的硬盘补发快照
+    private boolean snapshotsEnabled = OreStorageCellConfig.contentSnapshots;
 
     public CellItemSavedData() {
         this(DATA_NAME);
@@ -42,18 +146,91 @@ public class CellItemSavedData extends WorldSavedData {
      * @param world 当前加载的世界
      */
     public static synchronized void init(World world) {
-        // 设置为null以保证触发垃圾回收机制回收掉旧实例
-        INSTANCE = null;
+        // 等待旧实例尚未完成的写入，再设置为null以保证触发垃圾回收机制回收掉旧实例
+        close();
 
         MapStorage storage = world.mapStorage;
-        CellItemSavedData data = (CellItemSavedData) storage.loadData(CellItemSavedData.class, DATA_NAME);
+        File dataFile = world.getSaveHandler()
+            .getMapFileFromName(DATA_NAME);
+        // 优先流式读取，失败时交给原版完整解析
+        CellItemSavedData data = readStreaming(dataFile);
+        if (data != null) {
+            storage.setData(DATA_NAME, data);
+        } else {
+            data = (CellItemSavedData) storage.loadData(CellItemSavedData.class, DATA_NAME);
+        }
         if (data == null) {
             data = new CellItemSavedData();
             storage.setData(Reference.MODID, data);
         }
+        File root = new File(dataFile.getParentFile(), DATA_NAME);
+        data.store = new CellDiskStore(root);
+        data.journal = new CellJournal(new File(root, JOURNAL_DIR), data.journalSeq);
+        data.io = new CellDiskIO();
+        data.lastCompact = System.currentTimeMillis();
+        data.world = world;
+        data.replayJournal();
+        // 旧版本的索引没有引用时间，从现在开始计算宽限期
+        long now = world.getTotalWorldTime();
+        for (CellItemStorageData storage : data.disks.values()) {
+            if (storage.getLastSeen() == 0) {
+                storage.markSeen(now);
+            }
+        }
         INSTANCE = data;
     }
 
+    /**
+     * 压缩剩余的变更日志，等待所有后台写入完成并释放当前实例，在世界卸载时调用。
+     */
+    public static synchronized void close() {
+        if (INSTANCE != null && INSTANCE.io != null) {
+            INSTANCE.compact();
+            INSTANCE.io.shutdown();
+            TakoScheduler.cancel(INSTANCE.maintenance);
+            TakoScheduler.cancel(INSTANCE.scanner);
+            TakoScheduler.cancel(INSTANCE.compaction);
+            TakoScheduler.cancel(INSTANCE.snapshotPublisher);
+            INSTANCE.scanner.reset();
+            CellHeapGovernor.reset();
+            INSTANCE.world = null;
+        }
+        SNAPSHOTS.clear();
+        OreAggregates.reset();
+        INSTANCE = null;
+    }
+
+    /**
+     * 服务端每 tick 调用，按配置的间隔写入变更日志并定期压缩。
+     */
+    public static void serverTick() {
+        CellItemSavedData data = INSTANCE;
+        if (data != null && data.store != null) {
+            data.tick();
+        }
+    }
+
+    /**
+     * 获取硬盘最近发布的快照，可以在任意线程上调用。
+     * <p>
+     * 快照在硬盘发生变化后由后台任务在预算内发布，通常在同一个 tick 结束时完成，变化很多时可能晚几个 tick。只包含已加载的硬盘，硬盘卸载或回收后不再可用。
+     *
+     * @param diskId 硬盘ID
+     * @return 快照，硬盘尚未加载或未启用快照时返回 null
+     */
+    public static CellItemSnapshot getSnapshot(String diskId) {
+        return SNAPSHOTS.get(diskId);
+    }
+
+    /**
+     * 获取所有已发布的快照，可以在任意线程上调用。不同硬盘的快照不是在同一时刻发布的。
+     *
+     * @return 快照的只读视图
+     */
+    public static Collection<CellItemSnapshot> getSnapshots() {
+        return Collections.unmodifiableCollection(SNAPSHOTS.values());
+    }
+
     /**
      * @return `StorageComponentSavedData` 单例
      */
@@ -67,55 +244,904 @@ public class CellItemSavedData extends WorldSavedData {
 
     @Override
     public void readFromNBT(NBTTagCompound nbt) {
-        Map<String, CellItemStorageData> n = new HashMap<>();
+        disks.clear();
+        dirtyDisks.clear();
+        reclaimed.clear();
+        journalSeq = nbt.getLong(NBTConstants.JOURNAL_SEQ);
+
+        NBTTagList index = nbt.getTagList(NBTConstants.DISK_INDEX, Constants.NBT.TAG_COMPOUND);
+        for (int i = 0; i < index.tagCount(); i++) {
+            CellItemStorageData storage = CellItemStorageData.readIndex(index.getCompoundTagAt(i), this::readShard);
+            storage.setAccounted(true);
+            disks.put(storage.getDiskID(), storage);
+        }
+
+        if (!nbt.hasKey(NBTConstants.DISK_LIST)) {
+            return;
+        }
+
+        // 旧版本的单文件格式，全部读入内存并在下次保存时写成分片。NBT 已经解析完成，剩下的只有创建物品，在服务端线程上逐个转换
         NBTTagList list = nbt.getTagList(NBTConstants.DISK_LIST, Constants.NBT.TAG_COMPOUND);
         for (int i = 0; i < list.tagCount(); i++) {
             NBTTagCompound tag = list.getCompoundTagAt(i);
-            String diskID = tag.getString(NBTConstants.DISK_ID);
-            NBTTagList items = tag.getTagList(NBTConstants.DISK_ITEMS, Constants.NBT.TAG_COMPOUND);
-            CellItemStorageData storage = CellItemStorageData.readFromNBT(diskID, items);
-            n.put(diskID, storage);
+            addLegacyDisk(
+                CellItemStorageData.readFromNBT(
+                    tag.getString(NBTConstants.DISK_ID),
+                    tag.getTagList(NBTConstants.DISK_ITEMS, Constants.NBT.TAG_COMPOUND)));
+        }
+        migrating = true;
+        this.markDirty();
+    }
+
+    /**
+     * 登记从旧版本格式读出的硬盘，下次保存时写成分片。
+     *
+     * @param storage 读出的硬盘
+     */
+    private void addLegacyDisk(CellItemStorageData storage) {
+        storage.setAccounted(true);
+        disks.put(storage.getDiskID(), storage);
+        dirtyDisks.add(storage);
+    }
+
+    /**
+     * 流式读取 `TakoTech_Cell` 文件，与 {@link #readFromNBT(NBTTagCompound)} 的结果相同。
+     * <p>
+     * 不会先把整个文件解析为 NBT 树：索引条目逐个读取，旧版本格式中的物品在读取的同时逐个转换，读取时的峰值内存接近最终数据的大小。
+     *
+     * @param file 数据文件
+     * @return 读取的数据，文件不存在或读取失败时返回 null
+     */
+    private static CellItemSavedData readStreaming(File file) {
+        if (!file.isFile()) {
+            return null;
         }
+
+        try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), STREAM_BUFFER_SIZE), STREAM_BUFFER_SIZE))) {
+            NBTStreamReader reader = new NBTStreamReader(in);
+            CellItemSavedData data = new CellItemSavedData();
+            reader.beginRoot();
+            byte type;
+            while ((type = reader.nextEntry()) != Constants.NBT.TAG_END) {
+                // WorldSavedData 的内容保存在根标签的 data 中
+                if (type == Constants.NBT.TAG_COMPOUND && "data".equals(reader.getName())) {
+                    data.readStream(reader);
+                } else {
+                    reader.skipValue(type);
+                }
+            }
+            return data;
+        } catch (IOException | RuntimeException e) {
+            TakoTechMod.LOG.warn("Failed to stream {}, falling back to full NBT load", file, e);
+            return null;
+        }
+    }
+
+    private void readStream(NBTStreamReader reader) throws IOException {
         disks.clear();
-        disks.putAll(n);
+        dirtyDisks.clear();
+        reclaimed.clear();
+
+        byte type;
+        while ((type = reader.nextEntry()) != Constants.NBT.TAG_END) {
+            String name = reader.getName();
+            if (NBTConstants.JOURNAL_SEQ.equals(name)) {
+                journalSeq = reader.readLong(type);
+            } else if (NBTConstants.DISK_INDEX.equals(name)) {
+                reader.readCompoundList(type, tag -> {
+                    CellItemStorageData storage = CellItemStorageData.readIndex(tag, this::readShard);
+                    storage.setAccounted(true);
+                    disks.put(storage.getDiskID(), storage);
+                });
+            } else if (NBTConstants.DISK_LIST.equals(name) && type == Constants.NBT.TAG_LIST) {
+                readLegacyStream(reader);
+            } else {
+                reader.skipValue(type);
+            }
+        }
+    }
+
+    /**
+     * 流式读取旧版本的 `disk_list`，每个硬盘的物品边读边转换。物品会访问物品注册表和 AE 共享的物品定义，只在服务端线程上转换。
+     */
+    private void readLegacyStream(NBTStreamReader reader) throws IOException {
+        long list = reader.beginList();
+        for (int i = 0; i < NBTStreamReader.listLength(list); i++) {
+            if (NBTStreamReader.listType(list) != Constants.NBT.TAG_COMPOUND) {
+                reader.skipValue(NBTStreamReader.listType(list));
+                continue;
+            }
+
+            // 条目顺序不固定，硬盘ID可能在物品之后，先转换到临时的硬盘中
+            String diskId = "";
+            CellItemStorageData items = new CellItemStorageData("");
+            byte type;
+            while ((type = reader.nextEntry()) != Constants.NBT.TAG_END) {
+                if (NBTConstants.DISK_ID.equals(reader.getName())) {
+                    diskId = reader.readString(type);
+                } else if (NBTConstants.DISK_ITEMS.equals(reader.getName())) {
+                    reader.readCompoundList(type, tag -> {
+                        IAEItemStack ais = AEItemStack.loadItemStackFromNBT(tag);
+                        if (ais != null) {
+                            items.add(ais, ais.getStackSize());
+                        }
+                    });
+                } else {
+                    reader.skipValue(type);
+                }
+            }
+
+            CellItemStorageData storage = new CellItemStorageData(diskId);
+            storage.loadFrom(items);
+            addLegacyDisk(storage);
+        }
+        migrating = true;
+        this.markDirty();
     }
 
     @Override
     public void writeToNBT(NBTTagCompound nbt) {
-        NBTTagList list = new NBTTagList();
-        for (Map.Entry<String, CellItemStorageData> entry : disks.entrySet()) {
-            if (entry.getValue() == null || entry.getValue()
-                .isEmpty()) {
-                continue;
+        nbt.setInteger(NBTConstants.DISK_FORMAT, FORMAT_VERSION);
+        if (store == null) {
+            return;
+        }
+        nbt.setLong(NBTConstants.JOURNAL_SEQ, journal.getSeq());
+
+        if (migrating) {
+            // 主文件写出后旧数据就不存在了，必须先同步写完所有分片
+            compact();
+            io.await();
+            migrating = false;
+        } else if (OreStorageCellConfig.journal) {
+            flushJournal();
+        } else {
+            compact();
+        }
+
+        // 未加载的硬盘使用上次记录的统计信息，已加载的硬盘按当前内容统计
+        NBTTagList index = new NBTTagList();
+        for (CellItemStorageData storage : disks.values()) {
+            NBTTagCompound tag = storage.writeIndex();
+            if (tag != null) {
+                index.appendTag(tag);
+            }
+        }
+        nbt.setTag(NBTConstants.DISK_INDEX, index);
+    }
+
+    /**
+     * 将发生变化的硬盘写入分片，并删除已被分片包含的旧日志段。
+     * <p>
+     * 在服务端线程上一次为所有发生变化的硬盘创建快照，用于保存和卸载世界。运行中的定期压缩会在之后跳过已经写入的硬盘。
+     */
+    public void compact() {
+        flushJournal();
+        long seq = journal.rotate();
+        lastCompact = System.currentTimeMillis();
+        requeueFailedWrites();
+
+        // 只重写发生变化的硬盘，其余分片保持原样
+        List<CellDiskSnapshot> snapshots = new ArrayList<>(dirtyDisks.size());
+        for (CellItemStorageData storage : dirtyDisks) {
+            snapshots.add(takeSnapshot(storage, seq));
+        }
+        dirtyDisks.clear();
+
+        if (OreStorageCellConfig.asyncSave) {
+            // 上一次保存尚未完成时才需要等待
+            io.await();
+        }
+        runIO(() -> {
+            // 之前的写入失败时保留旧日志，等失败的硬盘重新写入后再删除
+            if (writeSnapshots(snapshots) && failedWrites.isEmpty()) {
+                journal.deleteBefore(seq);
+            }
+        });
+    }
+
+    /**
+     * 把上次写入失败的硬盘重新标记为发生了变化。
+     */
+    private void requeueFailedWrites() {
+        String failed;
+        while ((failed = failedWrites.poll()) != null) {
+            CellItemStorageData storage = disks.get(failed);
+            if (storage != null) {
+                dirtyDisks.add(storage);
+            }
+        }
+    }
+
+    /**
+     * 为硬盘创建写入分片用的快照，同时更新索引中的统计信息。
+     *
+     * @param storage 硬盘
+     * @param seq     快照已经包含的日志段序号，序号更小的日志段中该硬盘的记录在重放时跳过
+     * @return 快照
+     */
+    private CellDiskSnapshot takeSnapshot(CellItemStorageData storage, long seq) {
+        // 顺便删除数量为 0 的条目
+        storage.compact();
+        CellDiskSnapshot snapshot = CellDiskSnapshot.of(storage, seq);
+        storage.setIndex(snapshot.getTypeCount(), snapshot.getTotalCount());
+        return snapshot;
+    }
+
+    /**
+     * 开始一轮定期压缩，上一轮尚未结束时不会重新开始。
+     */
+    private void startCompaction() {
+        if (!TakoScheduler.isScheduled(compaction)) {
+            compaction.start();
+            TakoScheduler.submit(compaction);
+        }
+    }
+
+    /**
+     * 将快照写入分片，写入失败的硬盘会在下次保存时重试。
+     *
+     * @param snapshots 硬盘快照
+     * @return 全部写入成功时返回 true
+     */
+    private boolean writeSnapshots(List<CellDiskSnapshot> snapshots) {
+        boolean success = true;
+        for (CellDiskSnapshot snapshot : snapshots) {
+            if (!store.write(snapshot)) {
+                failedWrites.add(snapshot.getDiskID());
+                success = false;
+            }
+        }
+        return success;
+    }
+
+    /**
+     * 将缓冲区中的变更日志追加到文件。
+     */
+    private void flushJournal() {
+        Runnable task = journal.flush();
+        if (task != null) {
+            runIO(task);
+        }
+    }
+
+    /**
+     * 根据配置在后台线程或当前线程执行 IO 任务，保证与之前提交的任务顺序一致。
+     *
+     * @param task IO 任务
+     */
+    private void runIO(Runnable task) {
+        if (OreStorageCellConfig.asyncSave) {
+            io.submit(task);
+        } else {
+            io.await();
+            task.run();
+        }
+    }
+
+    private void tick() {
+        // 分类变化后按新的分类重新统计已加载的硬盘，未加载的硬盘在下次加载时重新统计
+        if (OreAggregates.consumeInvalidation()) {
+            for (CellItemStorageData storage : disks.values()) {
+                storage.reclassify();
+            }
+        }
+        if (OreStorageCellConfig.contentSnapshots && !snapshotsEnabled) {
+            for (CellItemStorageData storage : disks.values()) {
+                if (storage.isLoaded()) {
+                    queueSnapshot(storage);
+                }
+            }
+        }
+        snapshotsEnabled = OreStorageCellConfig.contentSnapshots;
+        if (!snapshotDisks.isEmpty() || !OreStorageCellConfig.contentSnapshots && !SNAPSHOTS.isEmpty()) {
+            TakoScheduler.submit(snapshotPublisher);
+        }
+
+        if (--budgetCountdown <= 0) {
+            budgetCountdown = BUDGET_INTERVAL_TICKS;
+            // 超过内存软预算时不等待下一次定期检查
+            if (CellHeapGovernor.isOverSoftBudget()) {
+                startMaintenance();
+            }
+        }
+
+        if (--evictCountdown <= 0) {
+            evictCountdown = EVICT_INTERVAL_TICKS;
+            // 维护和扫描分多个 tick 执行，上一轮尚未结束时不会重新开始
+            startMaintenance();
+            if (OreStorageCellConfig.orphanGraceHours > 0 && OreStorageCellConfig.orphanScan) {
+                TakoScheduler.submit(scanner);
+            }
+        }
+
+        if (!OreStorageCellConfig.journal) {
+            return;
+        }
+
+        if (--flushCountdown <= 0) {
+            flushCountdown = OreStorageCellConfig.journalFlushTicks;
+            flushJournal();
+        }
+
+        long interval = OreStorageCellConfig.journalCompactMinutes * 60_000L;
+        long maxBytes = OreStorageCellConfig.journalCompactSizeMB * 1024L * 1024L;
+        if (System.currentTimeMillis() - lastCompact >= interval || journal.getBytesSinceCompact() >= maxBytes) {
+            startCompaction();
+        }
+    }
+
+    /**
+     * 撤销硬盘已发布的快照，在硬盘卸载或回收时调用。
+     *
+     * @param storage 硬盘
+     */
+    private void withdrawSnapshot(CellItemStorageData storage) {
+        storage.discardSnapshot();
+        SNAPSHOTS.remove(storage.getDiskID());
+        snapshotDisks.remove(storage);
+    }
+
+    /**
+     * 开始一轮硬盘维护，上一轮尚未结束时不会重新开始。
+     */
+    private void startMaintenance() {
+        if (!TakoScheduler.isScheduled(maintenance)) {
+            maintenance.start();
+            TakoScheduler.submit(maintenance);
+        }
+    }
+
+    /**
+     * 回收已经清空的硬盘。
+     * <p>
+     * 只有空硬盘写入分片后才会回收（写入空快照时分片已被删除），回收后硬盘不再出现在索引中。 仍持有该硬盘的库存再次写入时由 {@link #markDirty(CellItemStorageData)} 重新登记。
+     *
+     * @param storage 硬盘
+     * @return 回收了硬盘时返回 true
+     */
+    private boolean reclaimIfEmpty(CellItemStorageData storage) {
+        if (!storage.isEmpty() || dirtyDisks.contains(storage) || failedWrites.contains(storage.getDiskID())) {
+            return false;
+        }
+        // 不在索引中的旧硬盘在加载前无法确认是否为空，只回收没有分片的
+        if (!storage.isLoaded() && (io.isBusy() || store.exists(storage.getDiskID()))) {
+            return false;
+        }
+        disks.remove(storage.getDiskID());
+        storage.setAccounted(false);
+        withdrawSnapshot(storage);
+        reclaimed.put(storage.getDiskID(), new WeakReference<>(storage));
+        return true;
+    }
+
+    /**
+     * 回收超过宽限期没有被元件引用的孤立硬盘。
+     * <p>
+     * 与卸载相同，只处理内容已经完整写入分片的硬盘。分片总是移入归档目录而不是删除：离线玩家的物品栏和未加载区块中的元件无法被扫描到，
+     * 未被发现引用的硬盘仍可能被元件持有，元件再次出现时从归档恢复。
+     *
+     * @param storage 硬盘
+     * @param now     当前的世界时间
+     * @param grace   宽限期（tick），不大于 0 时不回收
+     * @return 回收了硬盘时返回 true
+     */
+    private boolean collectIfOrphaned(CellItemStorageData storage, long now, long grace) {
+        if (grace <= 0 || now - storage.getLastSeen() < grace
+            || dirtyDisks.contains(storage)
+            || failedWrites.contains(storage.getDiskID())
+            || io.isBusy()) {
+            return false;
+        }
+        String diskId = storage.getDiskID();
+        if (!store.archive(diskId)) {
+            return false;
+        }
+        disks.remove(diskId);
+        storage.setAccounted(false);
+        withdrawSnapshot(storage);
+        // 缓存的库存仍可能持有该实例，再次访问时沿用同一个实例
+        reclaimed.put(diskId, new WeakReference<>(storage));
+        return true;
+    }
+
+    /**
+     * 记录指定硬盘仍被元件引用，已归档的硬盘会被恢复。
+     *
+     * @param diskId 硬盘ID
+     */
+    void markReferenced(String diskId) {
+        CellItemStorageData storage = disks.get(diskId);
+        if (storage == null) {
+            if (!reclaimed.containsKey(diskId) && !store.isArchived(diskId)) {
+                return;
             }
+            storage = disks.computeIfAbsent(diskId, this::findDisk);
+        }
+        storage.markSeen(worldTime());
+    }
+
+    /**
+     * @return 主世界的世界时间（tick）
+     */
+    private long worldTime() {
+        return world != null ? world.getTotalWorldTime() : 0;
+    }
+
+    /**
+     * 重放上次运行中尚未压缩进分片的变更日志。
+     */
+    private void replayJournal() {
+        Map<String, List<CellJournal.Record>> records = journal.readAll();
+        preloadShards(records.keySet());
+        for (Map.Entry<String, List<CellJournal.Record>> entry : records.entrySet()) {
+            CellItemStorageData storage = disks.computeIfAbsent(entry.getKey(), this::findDisk);
+            boolean replayed = false;
+            for (CellJournal.Record record : entry.getValue()) {
+                // 分片中已经包含的日志不再重复计数
+                if (record.seq >= storage.getJournalSeq()) {
+                    storage.applyDelta(record.item, record.delta);
+                    replayed = true;
+                }
+            }
+            if (replayed) {
+                dirtyDisks.add(storage);
+                snapshotDisks.add(storage);
+            }
+        }
+
+        if (!dirtyDisks.isEmpty()) {
+            TakoTechMod.LOG.info("Replayed cell journal for {} disks", dirtyDisks.size());
+            this.markDirty();
+        }
+    }
+
+    /**
+     * 并行读取尚未加载的硬盘分片，用于在重放日志之前预先加载需要重放的硬盘。
+     *
+     * @param diskIds 硬盘ID
+     */
+    private void preloadShards(Collection<String> diskIds) {
+        List<CellItemStorageData> pending = new ArrayList<>();
+        for (String diskId : diskIds) {
+            CellItemStorageData storage = disks.computeIfAbsent(diskId, this::findDisk);
+            if (!storage.isLoaded()) {
+                pending.add(storage);
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        // 工作线程只读取和解压分片，物品在服务端线程上创建
+        List<CellItemStorageData> shards = CellDiskDecoder.decodeAll(
+            pending,
+            storage -> store.readRaw(storage.getDiskID()),
+            (storage, raw) -> store.decode(storage.getDiskID(), raw));
+        for (int i = 0; i < pending.size(); i++) {
+            pending.get(i)
+                .loadFrom(shards.get(i));
+            queueSnapshot(pending.get(i));
+        }
+    }
+
+    /**
+     * 记录一次注入或提取，并标记硬盘发生了变化。
+     *
+     * @param storage 发生变化的硬盘
+     * @param item    发生变化的物品
+     * @param delta   数量变化，注入为正，提取为负
+     */
+    public void recordChange(CellItemStorageData storage, IAEItemStack item, long delta) {
+        if (OreStorageCellConfig.journal) {
+            journal.append(storage.getDiskID(), item, delta);
+        }
+        this.markDirty(storage);
+    }
 
-            NBTTagCompound tag = new NBTTagCompound();
-            tag.setString(NBTConstants.DISK_ID, entry.getKey());
-            tag.setTag(
-                NBTConstants.DISK_ITEMS,
-                entry.getValue()
-                    .writeToNBT());
-            list.appendTag(tag);
+    /**
+     * 标记指定硬盘的内容发生了变化，下次保存或压缩时只会重写这些硬盘的分片。
+     *
+     * @param storage 发生变化的硬盘
+     */
+    public void markDirty(CellItemStorageData storage) {
+        if (storage != null) {
+            // 已被回收的硬盘重新写入内容时重新登记
+            if (disks.putIfAbsent(storage.getDiskID(), storage) == null) {
+                storage.setAccounted(true);
+                reclaimed.remove(storage.getDiskID());
+                store.restore(storage.getDiskID());
+            }
+            storage.markSeen(worldTime());
+            dirtyDisks.add(storage);
+            snapshotDisks.add(storage);
         }
-        nbt.setTag(NBTConstants.DISK_LIST, list);
+        this.markDirty();
     }
 
     /**
      * 获取与指定存储元件项堆栈相关的数据存储。
+     * <p>
+     * 返回的硬盘可能尚未加载，内容会在第一次访问物品列表时从分片读取。尚未分配硬盘ID的元件返回 null，不会创建硬盘， 需要存入物品时通过
+     * {@link #allocateDisk(ItemStack)} 分配。
      *
      * @param itemStack 物品堆栈
-     * @return 与存储元件项堆栈关联的 `CellItemStorage` 数据
+     * @return 与存储元件项堆栈关联的 `CellItemStorage` 数据，尚未分配硬盘时返回 null
      */
     public CellItemStorageData getDataStorage(ItemStack itemStack) {
         if (itemStack.getItem() instanceof BaseAECellItem) {
             NBTTagCompound tag = CommonUtils.openNbtData(itemStack);
             String diskId = tag.getString(NBTConstants.DISK_ID);
             if (diskId == null || diskId.isEmpty()) {
-                diskId = UUID.randomUUID()
-                    .toString();
+                return null;
             }
-            return disks.computeIfAbsent(diskId, CellItemStorageData::new);
+            CellItemStorageData storage = disks.computeIfAbsent(diskId, this::findDisk);
+            storage.markSeen(worldTime());
+            return storage;
         }
         return null;
     }
+
+    /**
+     * 为尚未分配硬盘的元件分配新的硬盘ID并写入元件NBT。
+     *
+     * @param itemStack 物品堆栈
+     * @return 新分配的空硬盘
+     */
+    public CellItemStorageData allocateDisk(ItemStack itemStack) {
+        String diskId;
+        do {
+            diskId = UUID.randomUUID()
+                .toString();
+        } while (disks.containsKey(diskId) || reclaimed.containsKey(diskId));
+
+        CellItemStorageData storage = new CellItemStorageData(diskId);
+        storage.markSeen(worldTime());
+        storage.setAccounted(true);
+        disks.put(diskId, storage);
+        queueSnapshot(storage);
+        CommonUtils.openNbtData(itemStack)
+            .setString(NBTConstants.DISK_ID, diskId);
+        return storage;
+    }
+
+    /**
+     * 查找不在硬盘列表中的硬盘，优先使用仍被库存持有的已回收实例，已归档的分片会被恢复。
+     *
+     * @param diskId 硬盘ID
+     * @return 硬盘数据
+     */
+    private CellItemStorageData findDisk(String diskId) {
+        if (store != null && store.restore(diskId)) {
+            TakoTechMod.LOG.info("Restored archived cell disk {}", diskId);
+        }
+        WeakReference<CellItemStorageData> ref = reclaimed.remove(diskId);
+        CellItemStorageData storage = ref != null ? ref.get() : null;
+        if (storage == null) {
+            storage = loadDisk(diskId);
+        }
+        // 返回的硬盘总会被登记到硬盘列表
+        storage.setAccounted(true);
+        return storage;
+    }
+
+    /**
+     * 创建尚未加载的硬盘，分片不存在时加载结果为空硬盘。
+     *
+     * @param diskId 硬盘ID
+     * @return 硬盘数据
+     */
+    private CellItemStorageData loadDisk(String diskId) {
+        return new CellItemStorageData(diskId, this::readShard);
+    }
+
+    /**
+     * 读取硬盘分片。
+     *
+     * @param diskId 硬盘ID
+     * @return 读取的硬盘，分片不存在时返回 null
+     */
+    private CellItemStorageData readShard(String diskId) {
+        if (store == null) {
+            return null;
+        }
+        // 卸载前的写入可能仍在进行
+        if (io != null && io.isBusy()) {
+            io.await();
+        }
+        // 持有已回收实例的库存在分片被归档后才加载
+        store.restore(diskId);
+        CellItemStorageData shard = store.read(diskId);
+        // 读取完成后硬盘随即加载，快照在下一个 tick 发布
+        CellItemStorageData storage = disks.get(diskId);
+        if (storage != null) {
+            queueSnapshot(storage);
+        }
+        return shard;
+    }
+
+    /**
+     * 登记需要发布第一个快照的硬盘，只在硬盘加载或分配时调用，不在查找硬盘时调用。
+     *
+     * @param storage 硬盘
+     */
+    private void queueSnapshot(CellItemStorageData storage) {
+        if (OreStorageCellConfig.contentSnapshots && storage.getSnapshot() == null) {
+            snapshotDisks.add(storage);
+        }
+    }
+
+    /**
+     * 回收空硬盘和孤立硬盘，并卸载长时间未访问的硬盘。
+     * <p>
+     * 先分批检查开始时的所有硬盘，再按访问时间从早到晚分批卸载。已加载的物品类型总数超过上限或估算内存超过软预算时从最久未访问的硬盘开始卸载。
+     * 只有内容已经完整写入分片的硬盘才会被卸载，发生变化的冷硬盘会在结束时触发一次压缩，在下一轮中再卸载。
+     */
+    private class MaintenanceJob implements ITakoJob {
+
+        // 每一步检查的硬盘数量
+        private static final int STEP_SIZE = 256;
+
+        // 本轮开始时的硬盘
+        private final List<CellItemStorageData> candidates = new ArrayList<>();
+        // 检查过程中收集的已加载硬盘
+        private final List<CellItemStorageData> loaded = new ArrayList<>();
+        private int cursor;
+        private boolean evicting;
+        private long loadedTypes;
+        private boolean needsCompact;
+        private int reclaimedCount;
+        private int orphanCount;
+        private int evictedCount;
+
+        private void start() {
+            reclaimed.values()
+                .removeIf(ref -> ref.get() == null);
+            candidates.clear();
+            candidates.addAll(disks.values());
+            loaded.clear();
+            cursor = 0;
+            evicting = false;
+            loadedTypes = 0;
+            needsCompact = false;
+            reclaimedCount = 0;
+            orphanCount = 0;
+            evictedCount = 0;
+        }
+
+        @Override
+        public String getName() {
+            return "Cell disk maintenance";
+        }
+
+        @Override
+        public boolean step() {
+            if (!evicting) {
+                sweep();
+                if (cursor < candidates.size()) {
+                    return true;
+                }
+                loaded.sort(Comparator.comparingLong(CellItemStorageData::getLastAccess));
+                cursor = 0;
+                evicting = true;
+            }
+
+            if (evict()) {
+                return true;
+            }
+            finish();
+            return false;
+        }
+
+        @Override
+        public float getProgress() {
+            int total = candidates.size() + loaded.size();
+            int done = evicting ? candidates.size() + cursor : cursor;
+            return total > 0 ? (float) done / total : 1;
+        }
+
+        private void sweep() {
+            long grace = OreStorageCellConfig.orphanGraceHours * TICKS_PER_HOUR;
+            // 索引中的引用时间只在保存时写入，重启后需要先完整扫描一轮再判断
+            if (OreStorageCellConfig.orphanScan && scanner.getCompletedRounds() == 0) {
+                grace = 0;
+            }
+            long now = worldTime();
+
+            int end = Math.min(cursor + STEP_SIZE, candidates.size());
+            for (; cursor < end; cursor++) {
+                CellItemStorageData storage = candidates.get(cursor);
+                // 检查开始后可能已被移除
+                if (disks.get(storage.getDiskID()) != storage) {
+                    continue;
+                }
+                if (reclaimIfEmpty(storage)) {
+                    reclaimedCount++;
+                } else if (collectIfOrphaned(storage, now, grace)) {
+                    orphanCount++;
+                } else if (storage.isLoaded()) {
+                    loaded.add(storage);
+                    loadedTypes += storage.getStoredTypes();
+                }
+            }
+        }
+
+        /**
+         * @return 还有需要检查的硬盘时返回 true
+         */
+        private boolean evict() {
+            long idle = OreStorageCellConfig.evictIdleMinutes * 60_000L;
+            long budget = OreStorageCellConfig.evictMaxLoadedTypes;
+            if (idle <= 0 && budget <= 0 && CellHeapGovernor.getSoftBudget() <= 0) {
+                return false;
+            }
+
+            long now = System.currentTimeMillis();
+            int end = Math.min(cursor + STEP_SIZE, loaded.size());
+            for (; cursor < end; cursor++) {
+                CellItemStorageData storage = loaded.get(cursor);
+                boolean cold = idle > 0 && now - storage.getLastAccess() >= idle;
+                boolean overBudget = budget > 0 && loadedTypes > budget || CellHeapGovernor.isOverSoftBudget();
+                if (!cold && !overBudget) {
+                    return false;
+                }
+                // 检查之后可能已被访问、回收或卸载
+                if (!storage.isLoaded() || disks.get(storage.getDiskID()) != storage) {
+                    continue;
+                }
+
+                if (dirtyDisks.contains(storage)) {
+                    needsCompact = true;
+                    continue;
+                }
+                if (io.isBusy() || failedWrites.contains(storage.getDiskID())) {
+                    continue;
+                }
+
+                loadedTypes -= storage.getStoredTypes();
+                withdrawSnapshot(storage);
+                storage.unload(CellItemSavedData.this::readShard);
+                evictedCount++;
+            }
+            return cursor < loaded.size();
+        }
+
+        private void finish() {
+            CellHeapGovernor.checkSoftBudget();
+            if (reclaimedCount > 0) {
+                TakoTechMod.LOG.debug("Reclaimed {} empty cell disks", reclaimedCount);
+            }
+            if (orphanCount > 0) {
+                TakoTechMod.LOG.info("Archived {} orphaned cell disks", orphanCount);
+                CellItemSavedData.this.markDirty();
+            }
+            if (evictedCount > 0) {
+                TakoTechMod.LOG.debug("Evicted {} cold cell disks", evictedCount);
+            }
+            candidates.clear();
+            loaded.clear();
+            if (needsCompact) {
+                startCompaction();
+            }
+        }
+    }
+
+    /**
+     * 分批把发生变化的硬盘写入分片。
+     * <p>
+     * 开始时记下需要写入的硬盘，每一步为其中一批创建快照并交给 IO 线程写入。两步之间可能已经有新的变化记入日志，
+     * 因此每个 tick 的第一步先切换到新的日志段，本步的快照以新段的序号为准，重放时只应用快照之后的记录。 全部写入成功后删除本轮开始前的日志段。
+     */
+    private class CompactionJob implements ITakoJob {
+
+        // 每一步写入的硬盘数量
+        private static final int STEP_SIZE = 32;
+
+        // 本轮开始时发生变化的硬盘
+        private final List<CellItemStorageData> pending = new ArrayList<>();
+        private int cursor;
+        // 本轮第一个日志段的序号，全部写入后删除更早的日志段
+        private long firstSeq;
+        // 当前使用的日志段序号及切换时的世界时间
+        private long seq;
+        private long rotatedAt;
+
+        private void start() {
+            flushJournal();
+            firstSeq = seq = journal.rotate();
+            rotatedAt = worldTime();
+            lastCompact = System.currentTimeMillis();
+            requeueFailedWrites();
+            pending.clear();
+            pending.addAll(dirtyDisks);
+            cursor = 0;
+        }
+
+        @Override
+        public String getName() {
+            return "Cell disk compaction";
+        }
+
+        @Override
+        public boolean step() {
+            if (worldTime() != rotatedAt) {
+                flushJournal();
+                seq = journal.rotate();
+                rotatedAt = worldTime();
+            }
+
+            int end = Math.min(cursor + STEP_SIZE, pending.size());
+            List<CellDiskSnapshot> snapshots = new ArrayList<>(end - cursor);
+            for (; cursor < end; cursor++) {
+                CellItemStorageData storage = pending.get(cursor);
+                // 已经被同步压缩写入或者已被移除的硬盘不再写入
+                if (disks.get(storage.getDiskID()) == storage && dirtyDisks.remove(storage)) {
+                    snapshots.add(takeSnapshot(storage, seq));
+                }
+            }
+            if (!snapshots.isEmpty()) {
+                runIO(() -> writeSnapshots(snapshots));
+            }
+            if (cursor < pending.size()) {
+                return true;
+            }
+
+            long before = firstSeq;
+            runIO(() -> {
+                // 之前的写入失败时保留旧日志，等失败的硬盘重新写入后再删除
+                if (failedWrites.isEmpty()) {
+                    journal.deleteBefore(before);
+                }
+            });
+            pending.clear();
+            return false;
+        }
+
+        @Override
+        public float getProgress() {
+            return pending.isEmpty() ? -1 : (float) cursor / pending.size();
+        }
+    }
+
+    /**
+     * 分批为发生变化或刚加载的硬盘发布新版本的快照，关闭快照后撤销已发布的快照。
+     */
+    private class SnapshotJob implements ITakoJob {
+
+        // 每一步发布的硬盘数量
+        private static final int STEP_SIZE = 64;
+
+        @Override
+        public String getName() {
+            return "Cell snapshot publishing";
+        }
+
+        @Override
+        public int getPriority() {
+            return 5;
+        }
+
+        @Override
+        public boolean step() {
+            if (!OreStorageCellConfig.contentSnapshots) {
+                for (CellItemStorageData storage : disks.values()) {
+                    storage.discardSnapshot();
+                }
+                SNAPSHOTS.clear();
+                snapshotDisks.clear();
+                return false;
+            }
+
+            Iterator<CellItemStorageData> it = snapshotDisks.iterator();
+            for (int i = 0; i < STEP_SIZE && it.hasNext(); i++) {
+                CellItemStorageData storage = it.next();
+                it.remove();
+                // 发布前可能已被回收
+                if (disks.get(storage.getDiskID()) == storage && storage.publishSnapshot()) {
+                    SNAPSHOTS.put(storage.getDiskID(), storage.getSnapshot());
+                }
+            }
+            return !snapshotDisks.isEmpty();
+        }
+    }
 }
@@ -0,0 +1,151 @@
+package moe.takochan.takotech.common.storage;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.inventory.IInventory;
+import net.minecraft.item.ItemStack;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.world.WorldServer;
+
+import moe.takochan.takotech.TakoTechMod;
+import moe.takochan.takotech.common.item.BaseAECellItem;
+import moe.takochan.takotech.common.scheduler.ITakoJob;
+import moe.takochan.takotech.common.scheduler.TakoScheduler;
+import moe.takochan.takotech.constants.NBTConstants;
+
+/**
+ * 增量扫描已加载的物品栏，确认哪些硬盘仍被元件引用。
+ * <p>
+ * 每一轮先收集在线玩家的背包和末影箱，以及所有已加载世界中实现了 {@link IInventory} 的方块实体和实体（ME驱动器、ME箱子、箱子等）， 之后由
+ * {@link TakoScheduler} 每一步检查一个物品栏，全部检查完后本轮结束。 未加载区块和离线玩家中的元件不会被扫描到，它们在下次被访问时确认引用，因此回收孤立硬盘需要足够长的宽限期。
+ */
+class CellReferenceScanner implements ITakoJob {
+
+    // 记录引用的硬盘数据
+    private final CellItemSavedData data;
+    // 本轮等待检查的物品栏
+    private final Deque<IInventory> pending = new ArrayDeque<>();
+    // 本轮是否已经收集了物品栏
+    private boolean collected;
+    // 本轮收集到的物品栏数量
+    private int total;
+    // 已完成的轮数
+    private int completedRounds;
+
+    CellReferenceScanner(CellItemSavedData data) {
+        this.data = data;
+    }
+
+    @Override
+    public String getName() {
+        return "Cell reference scan";
+    }
+
+    @Override
+    public int getPriority() {
+        return -1;
+    }
+
+    /**
+     * 第一步收集本轮的物品栏，之后每一步检查一个物品栏。
+     *
+     * @return 本轮还有未检查的物品栏时返回 true
+     */
+    @Override
+    public boolean step() {
+        if (!this.collected) {
+            this.collect();
+            this.collected = true;
+            this.total = this.pending.size();
+        } else {
+            this.scan(this.pending.poll());
+        }
+
+        if (this.pending.isEmpty()) {
+            this.collected = false;
+            this.completedRounds++;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public float getProgress() {
+        return this.total > 0 ? 1 - (float) this.pending.size() / this.total : -1;
+    }
+
+    /**
+     * 清空本轮尚未检查的物品栏。
+     */
+    void reset() {
+        this.pending.clear();
+        this.collected = false;
+        this.completedRounds = 0;
+    }
+
+    /**
+     * @return 已完整检查过所有已加载物品栏的轮数
+     */
+    int getCompletedRounds() {
+        return this.completedRounds;
+    }
+
+    private void collect() {
+        final MinecraftServer server = MinecraftServer.getServer();
+        if (server == null || server.getConfigurationManager() == null) {
+            return;
+        }
+
+        for (final Object o : server.getConfigurationManager().playerEntityList) {
+            if (o instanceof EntityPlayer player) {
+                this.pending.add(player.inventory);
+                this.pending.add(player.getInventoryEnderChest());
+            }
+        }
+        for (final WorldServer world : server.worldServers) {
+            if (world == null) {
+                continue;
+            }
+            for (final Object o : world.loadedTileEntityList) {
+                if (o instanceof IInventory inventory) {
+                    this.pending.add(inventory);
+                }
+            }
+            for (final Object o : world.loadedEntityList) {
+                if (o instanceof IInventory inventory) {
+                    this.pending.add(inventory);
+                }
+            }
+        }
+    }
+
+    private void scan(IInventory inventory) {
+        // 收集之后可能已经被移除
+        if (inventory instanceof TileEntity te && te.isInvalid()) {
+            return;
+        }
+        if (inventory instanceof Entity entity && entity.isDead) {
+            return;
+        }
+        try {
+            final int size = inventory.getSizeInventory();
+            for (int slot = 0; slot < size; slot++) {
+                final ItemStack stack = inventory.getStackInSlot(slot);
+                if (stack == null || !(stack.getItem() instanceof BaseAECellItem) || !stack.hasTagCompound()) {
+                    continue;
+                }
+                final String diskId = stack.getTagCompound()
+                    .getString(NBTConstants.DISK_ID);
+                if (!diskId.isEmpty()) {
+                    this.data.markReferenced(diskId);
+                }
+            }
+        } catch (RuntimeException e) {
+            TakoTechMod.LOG.debug("Failed to scan inventory {} for cell references", inventory, e);
+        }
+    }
+}
@@ -1,7 +1,13 @@
 package moe.takochan.takotech.common.storage;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.IIcon;
 
@@ -17,9 +23,69 @@ import appeng.util.Platform;
 import moe.takochan.takotech.TakoTechMod;
 import moe.takochan.takotech.common.item.BaseAECellItem;
 import moe.takochan.takotech.common.item.IBaseAECellItem;
+import moe.takochan.takotech.constants.NBTConstants;
+import moe.takochan.takotech.utils.CommonUtils;
 
 public class TakoCellHandler implements ICellHandler {
 
+    // 服务端和客户端缓存的库存处理器数量上限，客户端只有物品提示会请求库存处理器
+    private static final int MAX_CACHED_HANDLERS = 4096;
+    private static final int MAX_CLIENT_HANDLERS = 256;
+    // 缓存项超过该 tick 数没有被使用时清除，避免缓存长期持有已经移出驱动器的元件和已经拆除的方块实体
+    private static final long IDLE_TICKS = 20 * 60 * 5;
+    // 检查过期缓存项的间隔（tick）
+    private static final int SWEEP_INTERVAL = 200;
+    // 影响库存处理器的元件NBT：配置槽、升级、模糊模式和矿物过滤器
+    private static final String[] CONFIG_TAGS = { "list", "upgrades", "FuzzyMode", "OreFilter" };
+    // 按硬盘ID缓存的库存处理器，服务端和客户端各用一份，只在各自的线程上访问
+    private static final Map<String, CachedHandler> HANDLERS = createCache(MAX_CACHED_HANDLERS);
+    private static final Map<String, CachedHandler> CLIENT_HANDLERS = createCache(MAX_CLIENT_HANDLERS);
+    // 服务端 tick 计数
+    private static long ticks;
+
+    private static Map<String, CachedHandler> createCache(int maxSize) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedHandler> eldest) {
+                return this.size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * 清空服务端缓存的库存处理器，在世界卸载时调用。
+     */
+    public static void clearCache() {
+        HANDLERS.clear();
+    }
+
+    /**
+     * 清空客户端缓存的库存处理器，在客户端世界卸载时调用。
+     */
+    public static void clearClientCache() {
+        CLIENT_HANDLERS.clear();
+    }
+
+    /**
+     * 清除长时间没有使用的缓存项，以及保存提供器是已经失效的方块实体的缓存项。
+     * <p>
+     * 在服务端 tick 结束时调用。
+     */
+    public static void tick() {
+        if (++ticks % SWEEP_INTERVAL != 0 || HANDLERS.isEmpty()) {
+            return;
+        }
+        final Iterator<CachedHandler> it = HANDLERS.values()
+            .iterator();
+        while (it.hasNext()) {
+            final CachedHandler cached = it.next();
+            if (ticks - cached.lastUsed > IDLE_TICKS || cached.host instanceof TileEntity te && te.isInvalid()) {
+                it.remove();
+            }
+        }
+    }
+
     /**
      * 检查物品是否由你的存储元件处理器处理
      *
@@ -43,7 +109,28 @@ public class TakoCellHandler implements ICellHandler {
     public IMEInventoryHandler<?> getCellInventory(ItemStack is, ISaveProvider host, StorageChannel channel) {
         if (isCell(is) && is.getItem() instanceof IBaseAECellItem aci && channel == StorageChannel.ITEMS) {
             try {
-                return new TakoCellInventoryHandler(aci.getCellInv(is, host));
+                final boolean server = CommonUtils.isServer();
+                final Map<String, CachedHandler> handlers = server ? HANDLERS : CLIENT_HANDLERS;
+                final NBTTagCompound tag = CommonUtils.openNbtData(is);
+                final String diskId = tag.getString(NBTConstants.DISK_ID);
+                final CachedHandler cached = diskId.isEmpty() ? null : handlers.get(diskId);
+                // 同一个物品堆栈、同一个保存提供器并且配置没有变化时复用
+                if (cached != null && cached.stack == is && cached.host == host && cached.matches(tag)) {
+                    if (server) {
+                        // 刷新硬盘的最近访问时间，缓存的元件不会因为没有重新创建库存而被当作闲置硬盘回收
+                        CellItemSavedData.getInstance()
+                            .getDataStorage(is);
+                        cached.lastUsed = ticks;
+                    }
+                    return cached.handler;
+                }
+
+                final TakoCellInventoryHandler handler = new TakoCellInventoryHandler(aci.getCellInv(is, host));
+                // 新元件在第一次存入物品时才分配硬盘ID，分配之前不缓存
+                if (!diskId.isEmpty()) {
+                    handlers.put(diskId, new CachedHandler(is, host, tag, handler));
+                }
+                return handler;
             } catch (Exception e) {
                 TakoTechMod.LOG.warn("Failed to create cell inventory for item: {}", is.getDisplayName(), e);
             }
@@ -125,4 +212,51 @@ public class TakoCellHandler implements ICellHandler {
         }
         return 0;
     }
+
+    /**
+     * 缓存的库存处理器及其创建时的物品堆栈、保存提供器和配置标签。
+     * <p>
+     * AE 的配置槽、升级槽和元件设置每次保存都会用新的标签替换元件NBT中的旧标签，因此只需要比较标签对象是否相同就能发现配置变化，
+     * 不需要每次都计算标签内容的散列。
+     */
+    private static class CachedHandler {
+
+        private final ItemStack stack;
+        private final ISaveProvider host;
+        // 创建时的元件NBT和其中的配置标签，按 CONFIG_TAGS 的顺序排列
+        private final NBTTagCompound tag;
+        private final NBTBase[] config;
+        private final TakoCellInventoryHandler handler;
+        // 最近一次使用时的服务端 tick 计数
+        private long lastUsed;
+
+        private CachedHandler(ItemStack stack, ISaveProvider host, NBTTagCompound tag,
+            TakoCellInventoryHandler handler) {
+            this.stack = stack;
+            this.host = host;
+            this.tag = tag;
+            this.config = new NBTBase[CONFIG_TAGS.length];
+            for (int i = 0; i < CONFIG_TAGS.length; i++) {
+                this.config[i] = tag.getTag(CONFIG_TAGS[i]);
+            }
+            this.handler = handler;
+            this.lastUsed = ticks;
+        }
+
+        /**
+         * @param tag 元件当前的NBT
+         * @return 元件配置没有变化时返回 true
+         */
+        private boolean matches(NBTTagCompound tag) {
+            if (tag != this.tag) {
+                return false;
+            }
+            for (int i = 0; i < CONFIG_TAGS.length; i++) {
+                if (tag.getTag(CONFIG_TAGS[i]) != this.config[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 }
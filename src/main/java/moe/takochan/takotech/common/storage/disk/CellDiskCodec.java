@@ -0,0 +1,268 @@
+package moe.takochan.takotech.common.storage.disk;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+
+import appeng.api.storage.data.IAEItemStack;
+import appeng.util.item.AEItemStack;
+import moe.takochan.takotech.TakoTechMod;
+import moe.takochan.takotech.common.data.CellItemStorageData;
+
+/**
+ * 硬盘分片的二进制格式。
+ * <p>
+ * 与逐个写入 {@link IAEItemStack#writeToNBT} 相比，物品注册名只在文件开头的字典中出现一次，数量使用变长整数，只有带NBT的物品才写入NBT：
+ *
+ * <pre>
+ * int     MAGIC
+ * byte    VERSION
+ * UTF     硬盘ID
+ * long    日志段序号
+ * varint  字典大小，随后是每个物品的注册名（UTF）
+ * varint  物品数量，随后每个物品为：
+ *         varint  字典下标
+ *         varlong (zigzag(meta) &lt;&lt; 1) | 是否带NBT，按无符号 32 位取 zigzag(meta)，不会溢出
+ *         varlong 数量
+ *         [NBT]
+ * </pre>
+ * <p>
+ * 文件整体使用 GZIP 压缩，与原有的NBT分片通过第一个字节区分。
+ * <p>
+ * 版本 1 把这一项写成 varint，元数据的绝对值不小于 2^30 时会溢出，读取时仍然兼容。
+ */
+public class CellDiskCodec {
+
+    // 文件标识 "TKCD"
+    public static final int MAGIC = 0x544B4344;
+    // MAGIC 的第一个字节，NBT分片的第一个字节是 TAG_Compound(10)
+    public static final int MAGIC_FIRST_BYTE = MAGIC >>> 24;
+    // 当前格式版本
+    public static final int VERSION = 2;
+    // 元数据使用 varint 编码的旧版本
+    private static final int VERSION_VARINT_META = 1;
+
+    private CellDiskCodec() {}
+
+    /**
+     * 将快照编码为二进制格式。
+     *
+     * @param snapshot 硬盘快照
+     * @param out      输出流
+     * @throws IOException 写入失败时抛出
+     */
+    public static void write(CellDiskSnapshot snapshot, DataOutput out) throws IOException {
+        final long[] keys = snapshot.getKeys();
+        final long[] counts = snapshot.getCounts();
+        final IAEItemStack[] tagged = snapshot.getTaggedItems();
+
+        // 构建注册名字典
+        final Map<Item, Integer> dictionary = new HashMap<>();
+        final List<String> names = new ArrayList<>();
+        final int[] indexes = new int[keys.length + tagged.length];
+        int count = 0;
+        for (int i = 0; i < indexes.length; i++) {
+            final Item item = i < keys.length ? CellItemStorageData.keyItem(keys[i])
+                : tagged[i - keys.length].getItem();
+            indexes[i] = indexOf(dictionary, names, item);
+            if (indexes[i] >= 0) {
+                count++;
+            }
+        }
+
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeUTF(snapshot.getDiskID());
+        out.writeLong(snapshot.getJournalSeq());
+
+        writeVarInt(out, names.size());
+        for (final String name : names) {
+            out.writeUTF(name);
+        }
+
+        writeVarInt(out, count);
+
+        for (int i = 0; i < keys.length; i++) {
+            if (indexes[i] < 0) {
+                continue;
+            }
+            writeVarInt(out, indexes[i]);
+            writeVarLong(out, packMeta(CellItemStorageData.keyMeta(keys[i]), false));
+            writeVarLong(out, counts[i]);
+        }
+
+        for (int i = 0; i < tagged.length; i++) {
+            final int index = indexes[keys.length + i];
+            if (index < 0) {
+                continue;
+            }
+            final IAEItemStack ais = tagged[i];
+            final NBTTagCompound tag = ais.getItemStack()
+                .getTagCompound();
+
+            writeVarInt(out, index);
+            writeVarLong(out, packMeta(ais.getItemDamage(), tag != null));
+            writeVarLong(out, ais.getStackSize());
+            if (tag != null) {
+                CompressedStreamTools.write(tag, out);
+            }
+        }
+    }
+
+    /**
+     * 获取物品在字典中的下标，不存在时加入字典。
+     *
+     * @return 字典下标，物品没有注册名时返回 -1
+     */
+    private static int indexOf(Map<Item, Integer> dictionary, List<String> names, Item item) {
+        if (item == null) {
+            return -1;
+        }
+        Integer index = dictionary.get(item);
+        if (index == null) {
+            final String name = Item.itemRegistry.getNameForObject(item);
+            if (name == null) {
+                return -1;
+            }
+            index = names.size();
+            names.add(name);
+            dictionary.put(item, index);
+        }
+        return index;
+    }
+
+    /**
+     * 读取二进制格式的硬盘，调用前 MAGIC 之后的内容尚未被读取。
+     *
+     * @param diskId 硬盘ID
+     * @param in     输入流，已经读过 MAGIC
+     * @return 读取的存储实例
+     * @throws IOException 格式错误或读取失败时抛出
+     */
+    public static CellItemStorageData read(String diskId, DataInputStream in) throws IOException {
+        final int version = in.readUnsignedByte();
+        if (version != VERSION && version != VERSION_VARINT_META) {
+            throw new IOException("Unsupported cell shard version " + version);
+        }
+
+        in.readUTF();
+        final CellItemStorageData storage = new CellItemStorageData(diskId);
+        storage.setJournalSeq(in.readLong());
+
+        final Item[] dictionary = new Item[readVarInt(in)];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = (Item) Item.itemRegistry.getObject(in.readUTF());
+        }
+
+        int missing = 0;
+        final int count = readVarInt(in);
+        for (int i = 0; i < count; i++) {
+            final int index = readVarInt(in);
+            final long flags = version == VERSION_VARINT_META ? readVarInt(in) & 0xFFFFFFFFL : readVarLong(in);
+            final long size = readVarLong(in);
+            final NBTTagCompound tag = (flags & 1) != 0 ? CompressedStreamTools.read(in) : null;
+
+            final Item item = index < dictionary.length ? dictionary[index] : null;
+            if (item == null) {
+                missing++;
+                continue;
+            }
+
+            final int meta = unpackMeta(flags);
+            if (tag == null) {
+                // 不带NBT的物品直接写入数量表，不创建物品堆栈
+                storage.putCount(item, meta, size);
+                continue;
+            }
+
+            final ItemStack is = new ItemStack(item, 1, meta);
+            is.setTagCompound(tag);
+            final IAEItemStack ais = AEItemStack.create(is);
+            if (ais != null) {
+                storage.add(ais, size);
+            }
+        }
+
+        if (missing > 0) {
+            TakoTechMod.LOG.warn("Dropped {} entries of unknown items while loading disk {}", missing, diskId);
+        }
+        return storage;
+    }
+
+    /**
+     * 把元数据和是否带NBT打包为一个无符号数，第 0 位为NBT标记，其余位为 zigzag 编码的元数据。
+     *
+     * @param meta   元数据
+     * @param hasTag 是否带NBT
+     * @return 打包后的值，不超过 33 位
+     */
+    static long packMeta(int meta, boolean hasTag) {
+        return ((zigzag(meta) & 0xFFFFFFFFL) << 1) | (hasTag ? 1 : 0);
+    }
+
+    /**
+     * @param packed {@link #packMeta} 的结果
+     * @return 元数据
+     */
+    static int unpackMeta(long packed) {
+        return unzigzag((int) (packed >>> 1));
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("VarInt is too long");
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("VarLong is too long");
+    }
+}
@@ -0,0 +1,123 @@
+package moe.takochan.takotech.common.storage.disk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import moe.takochan.takotech.TakoTechMod;
+import moe.takochan.takotech.common.data.CellItemStorageData;
+import moe.takochan.takotech.config.OreStorageCellConfig;
+
+/**
+ * 加载世界时并行读取多个硬盘。
+ * <p>
+ * 读取分为两步：工作线程在临时的 {@link ForkJoinPool} 上只做文件读取、解压等不涉及游戏状态的工作，
+ * 构建物品堆栈和 {@link appeng.api.storage.data.IAEItemStack} 的第二步全部在调用线程上按输入顺序执行。
+ * 物品注册表和 AE 共享的物品定义都没有保证可以在多个线程上同时访问，因此不会在工作线程上创建物品。
+ * <p>
+ * 某个硬盘在工作线程上读取失败时，会在调用线程上重新读取一次。
+ */
+public class CellDiskDecoder {
+
+    // 少于该数量的硬盘直接在调用线程上读取
+    private static final int PARALLEL_THRESHOLD = 4;
+
+    private CellDiskDecoder() {}
+
+    /**
+     * 读取并解码所有硬盘。
+     *
+     * @param sources 每个硬盘的数据来源
+     * @param reader  在工作线程上执行的读取逻辑，不能访问物品注册表或创建物品，失败时可以返回 null
+     * @param builder 在调用线程上执行的解码逻辑，参数为数据来源和读取结果，解码失败时可以返回 null
+     * @param <T>     数据来源的类型
+     * @param <R>     读取结果的类型
+     * @return 与输入顺序相同的解码结果
+     */
+    public static <T, R> List<CellItemStorageData> decodeAll(List<T> sources, Function<T, R> reader,
+        BiFunction<T, R, CellItemStorageData> builder) {
+        final List<CellItemStorageData> result = new ArrayList<>(sources.size());
+        final int parallelism = getParallelism();
+        if (sources.size() < PARALLEL_THRESHOLD || parallelism <= 1) {
+            for (final T source : sources) {
+                result.add(build(builder, source, reader.apply(source)));
+            }
+            return result;
+        }
+
+        final long start = System.currentTimeMillis();
+        final ForkJoinPool pool = newPool(parallelism);
+        try {
+            final List<Callable<R>> tasks = new ArrayList<>(sources.size());
+            for (final T source : sources) {
+                tasks.add(() -> reader.apply(source));
+            }
+
+            final List<Future<R>> futures = pool.invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++) {
+                R raw;
+                try {
+                    raw = futures.get(i)
+                        .get();
+                } catch (ExecutionException e) {
+                    TakoTechMod.LOG.warn("Failed to read cell disk in parallel, retrying", e.getCause());
+                    raw = reader.apply(sources.get(i));
+                }
+                result.add(build(builder, sources.get(i), raw));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread()
+                .interrupt();
+            // 剩余的硬盘在调用线程上读取
+            for (int i = result.size(); i < sources.size(); i++) {
+                result.add(build(builder, sources.get(i), reader.apply(sources.get(i))));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        TakoTechMod.LOG.info(
+            "Decoded {} cell disks on {} threads in {} ms",
+            sources.size(),
+            parallelism,
+            System.currentTimeMillis() - start);
+        return result;
+    }
+
+    private static <T, R> CellItemStorageData build(BiFunction<T, R, CellItemStorageData> builder, T source, R raw) {
+        return raw != null ? builder.apply(source, raw) : null;
+    }
+
+    /**
+     * @return 解码使用的线程数
+     */
+    private static int getParallelism() {
+        final int configured = OreStorageCellConfig.loadThreads;
+        if (configured > 0) {
+            return configured;
+        }
+        return Math.max(
+            1,
+            Runtime.getRuntime()
+                .availableProcessors() - 1);
+    }
+
+    private static ForkJoinPool newPool(int parallelism) {
+        return new ForkJoinPool(parallelism, CellDiskDecoder::newThread, null, false);
+    }
+
+    private static ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+        final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("TakoTech Cell Decoder-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        // 工作线程需要通过模组类加载器加载本模组的类
+        thread.setContextClassLoader(CellDiskDecoder.class.getClassLoader());
+        return thread;
+    }
+}
@@ -0,0 +1,88 @@
+package moe.takochan.takotech.common.storage.disk;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import moe.takochan.takotech.TakoTechMod;
+
+/**
+ * 矿物存储元件的后台 IO 线程。
+ * <p>
+ * 所有任务在同一个线程上按提交顺序执行，因此对同一分片的写入不会乱序。 服务端线程只在需要等待上一次保存完成时才会阻塞。
+ */
+public class CellDiskIO {
+
+    // 关闭时等待剩余任务的最长时间
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "TakoTech Cell IO");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 最近一次提交的任务
+    private Future<?> pending;
+
+    /**
+     * 提交一个后台任务。
+     *
+     * @param task 任务
+     */
+    public synchronized void submit(Runnable task) {
+        this.pending = this.executor.submit(() -> {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                TakoTechMod.LOG.error("Cell IO task failed", t);
+            }
+        });
+    }
+
+    /**
+     * @return 仍有任务未完成时返回 true
+     */
+    public synchronized boolean isBusy() {
+        return this.pending != null && !this.pending.isDone();
+    }
+
+    /**
+     * 阻塞等待已提交的任务全部完成。
+     */
+    public void await() {
+        final Future<?> future;
+        synchronized (this) {
+            future = this.pending;
+        }
+        if (future == null) {
+            return;
+        }
+
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread()
+                .interrupt();
+        } catch (ExecutionException e) {
+            TakoTechMod.LOG.error("Cell IO task failed", e.getCause());
+        }
+    }
+
+    /**
+     * 等待剩余任务完成并关闭 IO 线程。
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                TakoTechMod.LOG.error("Cell IO did not finish within {} seconds", SHUTDOWN_TIMEOUT_SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread()
+                .interrupt();
+        }
+    }
+}
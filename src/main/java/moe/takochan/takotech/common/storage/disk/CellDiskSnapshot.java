@@ -0,0 +1,165 @@
+package moe.takochan.takotech.common.storage.disk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+
+import appeng.api.storage.data.IAEItemStack;
+import moe.takochan.takotech.common.data.CellItemStorageData;
+import moe.takochan.takotech.utils.LongLongHashMap;
+
+/**
+ * 硬盘内容在某一时刻的只读快照。
+ * <p>
+ * 快照在服务端线程上创建，只复制数量大于0的物品，之后可以安全地交给 IO 线程编码和写入。 不带NBT的物品以打包后的键和数量保存，不创建物品堆栈。
+ */
+public class CellDiskSnapshot {
+
+    // 硬盘ID
+    private final String diskID;
+    // 不带NBT的物品的键和数量
+    private final long[] keys;
+    private final long[] counts;
+    // 带NBT的物品副本
+    private final IAEItemStack[] tagged;
+    // 快照包含的日志段序号
+    private final long journalSeq;
+    // 物品总数
+    private final long totalCount;
+
+    private CellDiskSnapshot(String diskID, long[] keys, long[] counts, IAEItemStack[] tagged, long journalSeq,
+        long totalCount) {
+        this.diskID = diskID;
+        this.keys = keys;
+        this.counts = counts;
+        this.tagged = tagged;
+        this.journalSeq = journalSeq;
+        this.totalCount = totalCount;
+    }
+
+    /**
+     * 复制硬盘当前的内容，必须在服务端线程上调用。
+     *
+     * @param storage    存储实例
+     * @param journalSeq 快照包含的日志段序号
+     * @return 快照
+     */
+    public static CellDiskSnapshot of(CellItemStorageData storage, long journalSeq) {
+        final LongLongHashMap primitive = storage.getPrimitiveCounts();
+        long[] keys = new long[primitive.size()];
+        long[] counts = new long[primitive.size()];
+        long totalCount = 0;
+        int n = 0;
+        for (int slot = 0; slot < primitive.capacity(); slot++) {
+            if (primitive.isUsed(slot) && primitive.valueAt(slot) > 0) {
+                keys[n] = primitive.keyAt(slot);
+                counts[n] = primitive.valueAt(slot);
+                totalCount += counts[n];
+                n++;
+            }
+        }
+        if (n < keys.length) {
+            keys = Arrays.copyOf(keys, n);
+            counts = Arrays.copyOf(counts, n);
+        }
+
+        final List<IAEItemStack> tagged = new ArrayList<>();
+        for (final IAEItemStack ais : storage.getTaggedItems()) {
+            if (ais.getStackSize() > 0) {
+                tagged.add(ais.copy());
+                totalCount += ais.getStackSize();
+            }
+        }
+        return new CellDiskSnapshot(
+            storage.getDiskID(),
+            keys,
+            counts,
+            tagged.toArray(new IAEItemStack[0]),
+            journalSeq,
+            totalCount);
+    }
+
+    /**
+     * @return 硬盘ID
+     */
+    public String getDiskID() {
+        return this.diskID;
+    }
+
+    /**
+     * @return 快照包含的日志段序号
+     */
+    public long getJournalSeq() {
+        return this.journalSeq;
+    }
+
+    /**
+     * @return 快照中的物品总数
+     */
+    public long getTotalCount() {
+        return this.totalCount;
+    }
+
+    /**
+     * @return 快照中的物品类型数量
+     */
+    public int getTypeCount() {
+        return this.keys.length + this.tagged.length;
+    }
+
+    /**
+     * @return 不带NBT的物品的键，参见 {@link CellItemStorageData#key}
+     */
+    public long[] getKeys() {
+        return this.keys;
+    }
+
+    /**
+     * @return 不带NBT的物品的数量，与 {@link #getKeys()} 一一对应
+     */
+    public long[] getCounts() {
+        return this.counts;
+    }
+
+    /**
+     * @return 快照中带NBT的物品
+     */
+    public IAEItemStack[] getTaggedItems() {
+        return this.tagged;
+    }
+
+    /**
+     * @return 快照中没有任何物品时返回 true
+     */
+    public boolean isEmpty() {
+        return this.getTypeCount() == 0;
+    }
+
+    /**
+     * 将快照编码为NBT列表。
+     *
+     * @return 存储物品的NBT列表
+     */
+    public NBTTagList writeToNBT() {
+        final NBTTagList out = new NBTTagList();
+        for (int i = 0; i < this.keys.length; i++) {
+            final IAEItemStack ais = CellItemStorageData.createStack(this.keys[i], this.counts[i]);
+            if (ais != null) {
+                out.appendTag(writeItem(ais));
+            }
+        }
+        for (final IAEItemStack ais : this.tagged) {
+            out.appendTag(writeItem(ais));
+        }
+        return out;
+    }
+
+    private static NBTTagCompound writeItem(IAEItemStack ais) {
+        final NBTTagCompound tag = new NBTTagCompound();
+        ais.writeToNBT(tag);
+        return tag;
+    }
+}
@@ -0,0 +1,385 @@
+package moe.takochan.takotech.common.storage.disk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraftforge.common.util.Constants;
+
+import appeng.api.storage.data.IAEItemStack;
+import appeng.util.item.AEItemStack;
+import moe.takochan.takotech.TakoTechMod;
+import moe.takochan.takotech.common.data.CellItemStorageData;
+import moe.takochan.takotech.config.OreStorageCellConfig;
+import moe.takochan.takotech.constants.NBTConstants;
+
+/**
+ * 矿物存储元件的分片存储。
+ * <p>
+ * 每个硬盘单独保存为一个分片文件，按照硬盘ID的前两位字符分桶存放，避免单个目录下文件过多：
+ *
+ * <pre>
+ * data/TakoTech_Cell/ab/ab12cd34-....dat
+ * </pre>
+ * <p>
+ * 保存时只需要重写发生变化的分片，读取时也只读取需要的分片。
+ * <p>
+ * 回收的孤立硬盘可以移入 {@code archive} 目录，目录结构与分片相同，需要时再移回。
+ * <p>
+ * 分片默认使用 {@link CellDiskCodec} 的二进制格式写入，读取时同时兼容二进制格式和NBT格式。
+ */
+public class CellDiskStore {
+
+    // 分片文件后缀
+    private static final String SHARD_SUFFIX = ".dat";
+    // 写入时使用的临时文件后缀
+    private static final String TEMP_SUFFIX = ".tmp";
+    // 归档目录
+    private static final String ARCHIVE_DIR = "archive";
+    // 压缩流缓冲区大小
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // 分片根目录
+    private final File root;
+
+    /**
+     * @param root 分片根目录，不存在时会在首次写入时创建
+     */
+    public CellDiskStore(File root) {
+        this.root = root;
+    }
+
+    /**
+     * 获取分片根目录。
+     *
+     * @return 分片根目录
+     */
+    public File getRoot() {
+        return this.root;
+    }
+
+    /**
+     * 判断指定硬盘是否存在分片文件。
+     *
+     * @param diskId 硬盘ID
+     * @return 存在分片文件时返回 true
+     */
+    public boolean exists(String diskId) {
+        return this.getShardFile(diskId)
+            .isFile();
+    }
+
+    /**
+     * 读取指定硬盘的分片。
+     *
+     * @param diskId 硬盘ID
+     * @return 读取的存储实例，分片不存在或读取失败时返回 null
+     */
+    public CellItemStorageData read(String diskId) {
+        final File file = this.getShardFile(diskId);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try (InputStream in = new BufferedInputStream(
+            new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE),
+            BUFFER_SIZE)) {
+            return decode(diskId, in);
+        } catch (IOException e) {
+            TakoTechMod.LOG.error("Failed to read cell shard {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * 读取指定硬盘的分片并解压，不解析内容，可以在任意线程上调用。
+     *
+     * @param diskId 硬盘ID
+     * @return 解压后的分片数据，分片不存在或读取失败时返回 null
+     */
+    public byte[] readRaw(String diskId) {
+        final File file = this.getShardFile(diskId);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE)) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            TakoTechMod.LOG.error("Failed to read cell shard {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * 解析 {@link #readRaw(String)} 读出的分片数据，会创建物品，只能在服务端线程上调用。
+     *
+     * @param diskId 硬盘ID
+     * @param raw    解压后的分片数据
+     * @return 读取的存储实例，解析失败时返回 null
+     */
+    public CellItemStorageData decode(String diskId, byte[] raw) {
+        try {
+            return decode(diskId, new ByteArrayInputStream(raw));
+        } catch (IOException e) {
+            TakoTechMod.LOG.error("Failed to read cell shard {}", this.getShardFile(diskId), e);
+            return null;
+        }
+    }
+
+    /**
+     * 按第一个字节区分二进制格式和NBT格式，解析解压后的分片数据。
+     */
+    private static CellItemStorageData decode(String diskId, InputStream raw) throws IOException {
+        final PushbackInputStream in = new PushbackInputStream(raw);
+        final int first = in.read();
+        if (first < 0) {
+            throw new IOException("Empty cell shard");
+        }
+        in.unread(first);
+
+        final DataInputStream data = new DataInputStream(in);
+        if (first == CellDiskCodec.MAGIC_FIRST_BYTE) {
+            if (data.readInt() != CellDiskCodec.MAGIC) {
+                throw new IOException("Unknown cell shard format");
+            }
+            return CellDiskCodec.read(diskId, data);
+        }
+
+        return readNBT(diskId, new NBTStreamReader(data));
+    }
+
+    /**
+     * 流式读取NBT格式的分片，物品逐个转换后存入硬盘，不构建完整的物品列表。
+     */
+    private static CellItemStorageData readNBT(String diskId, NBTStreamReader reader) throws IOException {
+        final CellItemStorageData storage = new CellItemStorageData(diskId);
+        reader.beginRoot();
+        byte type;
+        while ((type = reader.nextEntry()) != Constants.NBT.TAG_END) {
+            if (NBTConstants.DISK_ITEMS.equals(reader.getName())) {
+                reader.readCompoundList(type, tag -> {
+                    final IAEItemStack ais = AEItemStack.loadItemStackFromNBT(tag);
+                    if (ais != null) {
+                        storage.add(ais, ais.getStackSize());
+                    }
+                });
+            } else if (NBTConstants.JOURNAL_SEQ.equals(reader.getName())) {
+                storage.setJournalSeq(reader.readLong(type));
+            } else {
+                reader.skipValue(type);
+            }
+        }
+        return storage;
+    }
+
+    /**
+     * 将硬盘快照写入分片文件，空快照会直接删除对应的分片。
+     * <p>
+     * 该方法不访问硬盘的实时数据，可以在 IO 线程上调用。
+     *
+     * @param snapshot 硬盘快照
+     * @return 写入成功时返回 true
+     */
+    public boolean write(CellDiskSnapshot snapshot) {
+        if (snapshot.isEmpty()) {
+            return this.delete(snapshot.getDiskID());
+        }
+
+        final File file = this.getShardFile(snapshot.getDiskID());
+        try {
+            if (OreStorageCellConfig.binaryFormat) {
+                this.writeAtomically(file, out -> {
+                    final DataOutputStream data = new DataOutputStream(
+                        new BufferedOutputStream(new GZIPOutputStream(out, BUFFER_SIZE), BUFFER_SIZE));
+                    CellDiskCodec.write(snapshot, data);
+                    data.close();
+                });
+            } else {
+                final NBTTagCompound tag = new NBTTagCompound();
+                tag.setString(NBTConstants.DISK_ID, snapshot.getDiskID());
+                tag.setTag(NBTConstants.DISK_ITEMS, snapshot.writeToNBT());
+                tag.setLong(NBTConstants.JOURNAL_SEQ, snapshot.getJournalSeq());
+                this.writeAtomically(file, out -> CompressedStreamTools.writeCompressed(tag, out));
+            }
+            return true;
+        } catch (IOException e) {
+            TakoTechMod.LOG.error("Failed to write cell shard {}", file, e);
+            return false;
+        }
+    }
+
+    /**
+     * 删除指定硬盘的分片文件。
+     *
+     * @param diskId 硬盘ID
+     * @return 分片已不存在时返回 true
+     */
+    public boolean delete(String diskId) {
+        final File file = this.getShardFile(diskId);
+        if (file.isFile() && !file.delete()) {
+            TakoTechMod.LOG.warn("Failed to delete cell shard {}", file);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 判断指定硬盘是否存在归档的分片文件。
+     *
+     * @param diskId 硬盘ID
+     * @return 存在归档时返回 true
+     */
+    public boolean isArchived(String diskId) {
+        return this.getArchiveFile(diskId)
+            .isFile();
+    }
+
+    /**
+     * 将指定硬盘的分片移入归档目录。
+     *
+     * @param diskId 硬盘ID
+     * @return 分片已移入归档或原本就不存在时返回 true
+     */
+    public boolean archive(String diskId) {
+        final File file = this.getShardFile(diskId);
+        if (!file.isFile()) {
+            return true;
+        }
+        return this.move(file, this.getArchiveFile(diskId));
+    }
+
+    /**
+     * 将归档的分片移回分片目录，分片目录中已有分片时保留现有分片。
+     *
+     * @param diskId 硬盘ID
+     * @return 恢复了归档时返回 true
+     */
+    public boolean restore(String diskId) {
+        final File archived = this.getArchiveFile(diskId);
+        if (!archived.isFile() || this.exists(diskId)) {
+            return false;
+        }
+        return this.move(archived, this.getShardFile(diskId));
+    }
+
+    private boolean move(File from, File to) {
+        final File dir = to.getParentFile();
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Unable to create directory " + dir);
+            }
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            TakoTechMod.LOG.warn("Failed to move cell shard {} to {}", from, to, e);
+            return false;
+        }
+    }
+
+    /**
+     * 获取指定硬盘的归档文件。
+     *
+     * @param diskId 硬盘ID
+     * @return 归档文件
+     */
+    public File getArchiveFile(String diskId) {
+        final File shard = this.getShardFile(diskId);
+        return new File(
+            new File(new File(this.root, ARCHIVE_DIR), shard.getParentFile()
+                .getName()),
+            shard.getName());
+    }
+
+    /**
+     * 获取指定硬盘的分片文件。
+     *
+     * @param diskId 硬盘ID
+     * @return 分片文件
+     */
+    public File getShardFile(String diskId) {
+        final String name = sanitize(diskId);
+        final String bucket = name.length() >= 2 ? name.substring(0, 2) : "_";
+        return new File(new File(this.root, bucket), name + SHARD_SUFFIX);
+    }
+
+    /**
+     * 先写入临时文件再替换目标文件，避免写入中途崩溃导致分片损坏。
+     *
+     * @param file   目标文件
+     * @param writer 写入逻辑
+     * @throws IOException 写入失败时抛出
+     */
+    void writeAtomically(File file, ShardWriter writer) throws IOException {
+        final File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create directory " + dir);
+        }
+
+        final File temp = new File(dir, file.getName() + TEMP_SUFFIX);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+            writer.write(out);
+        }
+
+        try {
+            Files.move(
+                temp.toPath(),
+                file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 将硬盘ID转换为安全的文件名。
+     *
+     * @param diskId 硬盘ID
+     * @return 只包含字母、数字、'-' 和 '_' 的文件名
+     */
+    private static String sanitize(String diskId) {
+        final StringBuilder sb = new StringBuilder(diskId.length());
+        for (int i = 0; i < diskId.length(); i++) {
+            final char c = diskId.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_') {
+                sb.append(c);
+            } else {
+                sb.append('_');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 分片写入逻辑。
+     */
+    @FunctionalInterface
+    interface ShardWriter {
+
+        void write(OutputStream out) throws IOException;
+    }
+}
@@ -0,0 +1,367 @@
+package moe.takochan.takotech.common.storage.disk;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+
+import appeng.api.storage.data.IAEItemStack;
+import appeng.util.item.AEItemStack;
+import moe.takochan.takotech.TakoTechMod;
+
+/**
+ * 矿物存储元件的追加式变更日志。
+ * <p>
+ * 每次注入或提取都会以 (硬盘ID, 物品, 变化量) 的形式先写入内存缓冲区，再按批次追加到当前的日志段文件中。 日志段以序号命名：
+ *
+ * <pre>
+ * data/TakoTech_Cell/journal/journal-&lt;seq&gt;.log
+ * </pre>
+ * <p>
+ * 日志段以 {@link #SEGMENT_MAGIC} 和版本号开头，物品的元数据与 {@link CellDiskCodec} 一样按 varlong 写入。 没有文件头的旧日志段把元数据写成 short，读取时仍然兼容。
+ * <p>
+ * 压缩时先切换到新的日志段，再把发生变化的硬盘写入分片并记录新日志段的序号，全部写入成功后删除旧的日志段。 加载时只重放序号不小于分片记录序号的日志，因此崩溃后重复重放也不会重复计数。
+ */
+public class CellJournal {
+
+    // 日志段文件前缀
+    private static final String SEGMENT_PREFIX = "journal-";
+    // 日志段文件后缀
+    private static final String SEGMENT_SUFFIX = ".log";
+    // 日志段文件标识 "TKJL"，旧日志段以硬盘ID的长度开头，不会与之混淆
+    static final int SEGMENT_MAGIC = 0x544B4A4C;
+    // 当前日志段版本
+    static final int SEGMENT_VERSION = 2;
+    // 没有文件头、元数据写成 short 的旧日志段
+    static final int SEGMENT_VERSION_SHORT_META = 1;
+
+    // 日志段目录
+    private final File dir;
+    // 物品的读写方式
+    private final ItemCodec codec;
+    // 尚未写入文件的日志
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private DataOutputStream out = new DataOutputStream(this.buffer);
+    // 当前日志段序号
+    private long seq;
+    // 自上次压缩以来追加的字节数
+    private long bytesSinceCompact;
+
+    /**
+     * @param dir     日志段目录
+     * @param lastSeq 上次保存时记录的日志段序号
+     */
+    public CellJournal(File dir, long lastSeq) {
+        this(dir, lastSeq, ItemCodec.REGISTRY);
+    }
+
+    /**
+     * @param dir     日志段目录
+     * @param lastSeq 上次保存时记录的日志段序号
+     * @param codec   物品的读写方式
+     */
+    CellJournal(File dir, long lastSeq, ItemCodec codec) {
+        this.dir = dir;
+        this.codec = codec;
+        long seq = lastSeq;
+        for (final long existing : this.listSegments()) {
+            seq = Math.max(seq, existing);
+        }
+        this.seq = nextSeq(seq);
+    }
+
+    /**
+     * 生成新的日志段序号。使用时间戳保证重启之后的序号仍然大于之前写入分片的序号。
+     *
+     * @param last 上一个序号
+     * @return 新序号
+     */
+    private static long nextSeq(long last) {
+        return Math.max(System.currentTimeMillis(), last + 1);
+    }
+
+    /**
+     * @return 当前日志段序号
+     */
+    public long getSeq() {
+        return this.seq;
+    }
+
+    /**
+     * @return 自上次压缩以来追加的字节数
+     */
+    public long getBytesSinceCompact() {
+        return this.bytesSinceCompact + this.buffer.size();
+    }
+
+    /**
+     * 追加一条变更记录到内存缓冲区。
+     *
+     * @param diskId 硬盘ID
+     * @param item   发生变化的物品
+     * @param delta  数量变化，注入为正，提取为负
+     */
+    public void append(String diskId, IAEItemStack item, long delta) {
+        try {
+            this.out.writeUTF(diskId);
+            this.codec.write(this.out, item);
+            this.out.writeLong(delta);
+        } catch (IOException e) {
+            // ByteArrayOutputStream 不会抛出异常
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 取出缓冲区中的日志，返回追加到当前日志段的 IO 任务。
+     *
+     * @return IO 任务，缓冲区为空时返回 null
+     */
+    public Runnable flush() {
+        if (this.buffer.size() == 0) {
+            return null;
+        }
+
+        final byte[] data = this.buffer.toByteArray();
+        final File file = this.getSegmentFile(this.seq);
+        this.bytesSinceCompact += data.length;
+        this.buffer = new ByteArrayOutputStream();
+        this.out = new DataOutputStream(this.buffer);
+
+        return () -> {
+            if (!this.dir.isDirectory() && !this.dir.mkdirs()) {
+                TakoTechMod.LOG.error("Unable to create journal directory {}", this.dir);
+                return;
+            }
+            try (FileOutputStream fos = new FileOutputStream(file, true)) {
+                // 新的日志段先写入文件头
+                if (file.length() == 0) {
+                    final DataOutputStream header = new DataOutputStream(fos);
+                    header.writeInt(SEGMENT_MAGIC);
+                    header.writeByte(SEGMENT_VERSION);
+                }
+                fos.write(data);
+            } catch (IOException e) {
+                TakoTechMod.LOG.error("Failed to append cell journal {}", file, e);
+            }
+        };
+    }
+
+    /**
+     * 切换到新的日志段，调用前应先 {@link #flush()}。
+     *
+     * @return 新日志段的序号，之前的日志段都只包含序号更小的记录
+     */
+    public long rotate() {
+        this.seq = nextSeq(this.seq);
+        this.bytesSinceCompact = 0;
+        return this.seq;
+    }
+
+    /**
+     * 删除序号小于指定值的日志段，在 IO 线程上调用。
+     *
+     * @param seq 序号
+     */
+    public void deleteBefore(long seq) {
+        for (final long existing : this.listSegments()) {
+            if (existing < seq) {
+                final File file = this.getSegmentFile(existing);
+                if (!file.delete()) {
+                    TakoTechMod.LOG.warn("Failed to delete cell journal {}", file);
+                }
+            }
+        }
+    }
+
+    /**
+     * 按顺序读取所有日志段中的记录，末尾不完整的记录会被忽略。
+     *
+     * @return 以硬盘ID分组的记录
+     */
+    public Map<String, List<Record>> readAll() {
+        final Map<String, List<Record>> records = new LinkedHashMap<>();
+        for (final long segment : this.listSegments()) {
+            final File file = this.getSegmentFile(segment);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                final int version = readVersion(in, file.length());
+                if (version > SEGMENT_VERSION) {
+                    throw new IOException("Unsupported cell journal version " + version);
+                }
+                while (true) {
+                    final String diskId;
+                    try {
+                        diskId = in.readUTF();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    final IAEItemStack item = this.codec.read(in, version);
+                    final long delta = in.readLong();
+                    if (item != null) {
+                        records.computeIfAbsent(diskId, k -> new ArrayList<>())
+                            .add(new Record(segment, item, delta));
+                    }
+                }
+            } catch (EOFException e) {
+                TakoTechMod.LOG.warn("Cell journal {} ends with an incomplete record, ignoring it", file);
+            } catch (IOException e) {
+                TakoTechMod.LOG.error("Failed to read cell journal {}", file, e);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * 读取日志段的文件头，没有文件头时回到文件开头。
+     *
+     * @param in     日志段输入流，需要支持 mark
+     * @param length 日志段文件长度
+     * @return 日志段版本
+     */
+    private static int readVersion(DataInputStream in, long length) throws IOException {
+        if (length < 5) {
+            return SEGMENT_VERSION_SHORT_META;
+        }
+        in.mark(4);
+        if (in.readInt() != SEGMENT_MAGIC) {
+            in.reset();
+            return SEGMENT_VERSION_SHORT_META;
+        }
+        return in.readUnsignedByte();
+    }
+
+    /**
+     * @return 已存在的日志段序号，按从小到大排序
+     */
+    private long[] listSegments() {
+        final String[] names = this.dir.list();
+        if (names == null) {
+            return new long[0];
+        }
+
+        long[] segments = new long[names.length];
+        int n = 0;
+        for (final String name : names) {
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    segments[n++] = Long.parseLong(
+                        name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+        segments = Arrays.copyOf(segments, n);
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private File getSegmentFile(long seq) {
+        return new File(this.dir, SEGMENT_PREFIX + seq + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * 写入物品的注册名、元数据和NBT，元数据和是否带NBT按 {@link CellDiskCodec#packMeta} 打包。
+     */
+    private static void writeItem(DataOutputStream out, IAEItemStack item) throws IOException {
+        out.writeUTF(Item.itemRegistry.getNameForObject(item.getItem()));
+        final NBTTagCompound tag = item.hasTagCompound() ? item.getItemStack()
+            .getTagCompound() : null;
+        CellDiskCodec.writeVarLong(out, CellDiskCodec.packMeta(item.getItemDamage(), tag != null));
+        if (tag != null) {
+            CompressedStreamTools.write(tag, out);
+        }
+    }
+
+    /**
+     * 读取物品，物品已不存在时返回 null。
+     */
+    private static IAEItemStack readItem(DataInputStream in, int version) throws IOException {
+        final String name = in.readUTF();
+        final int meta;
+        final boolean hasTag;
+        if (version == SEGMENT_VERSION_SHORT_META) {
+            meta = in.readShort();
+            hasTag = in.readBoolean();
+        } else {
+            final long packed = CellDiskCodec.readVarLong(in);
+            meta = CellDiskCodec.unpackMeta(packed);
+            hasTag = (packed & 1) != 0;
+        }
+        final NBTTagCompound tag = hasTag ? CompressedStreamTools.read(in) : null;
+
+        final Item item = (Item) Item.itemRegistry.getObject(name);
+        if (item == null) {
+            return null;
+        }
+        final ItemStack is = new ItemStack(item, 1, meta);
+        is.setTagCompound(tag);
+        return AEItemStack.create(is);
+    }
+
+    /**
+     * 日志中物品的读写方式。
+     */
+    interface ItemCodec {
+
+        /**
+         * 按注册名读写物品。
+         */
+        ItemCodec REGISTRY = new ItemCodec() {
+
+            @Override
+            public void write(DataOutputStream out, IAEItemStack item) throws IOException {
+                writeItem(out, item);
+            }
+
+            @Override
+            public IAEItemStack read(DataInputStream in, int version) throws IOException {
+                return readItem(in, version);
+            }
+        };
+
+        /**
+         * 写入物品。
+         */
+        void write(DataOutputStream out, IAEItemStack item) throws IOException;
+
+        /**
+         * 读取物品，物品已不存在时返回 null。
+         *
+         * @param version 日志段版本
+         */
+        IAEItemStack read(DataInputStream in, int version) throws IOException;
+    }
+
+    /**
+     * 一条变更记录。
+     */
+    public static class Record {
+
+        // 所在日志段的序号
+        public final long seq;
+        // 发生变化的物品
+        public final IAEItemStack item;
+        // 数量变化
+        public final long delta;
+
+        public Record(long seq, IAEItemStack item, long delta) {
+            this.seq = seq;
+            this.item = item;
+            this.delta = delta;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package moe.takochan.takotech.common.storage.disk;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagByteArray;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagFloat;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagIntArray;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagLong;
+import net.minecraft.nbt.NBTTagShort;
+import net.minecraft.nbt.NBTTagString;
+import net.minecraftforge.common.util.Constants;
+
+/**
+ * 流式读取未压缩的 NBT 二进制数据。
+ * <p>
+ * {@link net.minecraft.nbt.CompressedStreamTools} 会先把整个文件解析为一棵 {@link NBTTagCompound} 树， 这里按顺序逐个读取复合标签的条目和列表的元素，调用方可以只把需要的部分
+ * 构建为标签，其余部分直接转换或跳过，读取时的峰值内存接近最终数据的大小。
+ * <p>
+ * 复合标签的条目按写入时的顺序出现，调用方不能假设条目的先后顺序。
+ */
+public class NBTStreamReader {
+
+    // 与原版相同的最大嵌套深度
+    private static final int MAX_DEPTH = 512;
+
+    private final DataInput in;
+    // 最近一次读取的条目名称
+    private String name;
+
+    /**
+     * @param in 未压缩的 NBT 数据
+     */
+    public NBTStreamReader(DataInput in) {
+        this.in = in;
+    }
+
+    /**
+     * 读取根标签的类型和名称，根标签必须是复合标签。之后通过 {@link #nextEntry()} 读取根标签的条目。
+     *
+     * @throws IOException 根标签不是复合标签或读取失败时抛出
+     */
+    public void beginRoot() throws IOException {
+        final byte type = this.in.readByte();
+        if (type != Constants.NBT.TAG_COMPOUND) {
+            throw new IOException("Root tag must be a compound, got " + type);
+        }
+        this.in.readUTF();
+    }
+
+    /**
+     * 读取当前复合标签的下一个条目的类型和名称，之后必须通过 {@link #readValue(byte)}、{@link #readLong(byte)}、{@link #readString(byte)}、
+     * {@link #beginList()} 或 {@link #skipValue(byte)} 读取条目的值。
+     *
+     * @return 条目类型，复合标签结束时返回 {@link Constants.NBT#TAG_END}
+     * @throws IOException 读取失败时抛出
+     */
+    public byte nextEntry() throws IOException {
+        final byte type = this.in.readByte();
+        this.name = type != Constants.NBT.TAG_END ? this.in.readUTF() : null;
+        return type;
+    }
+
+    /**
+     * @return 最近一次读取的条目名称
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * 读取列表的元素类型和长度，之后按元素类型逐个读取元素。
+     *
+     * @return 打包的元素类型和长度 {@code (类型 << 32) | 长度}，通过 {@link #listType(long)} 和 {@link #listLength(long)} 拆分
+     * @throws IOException 读取失败时抛出
+     */
+    public long beginList() throws IOException {
+        final byte type = this.in.readByte();
+        final int length = this.in.readInt();
+        return ((long) type << 32) | (length & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param list {@link #beginList()} 的返回值
+     * @return 列表的元素类型
+     */
+    public static byte listType(long list) {
+        return (byte) (list >>> 32);
+    }
+
+    /**
+     * @param list {@link #beginList()} 的返回值
+     * @return 列表的长度
+     */
+    public static int listLength(long list) {
+        return (int) list;
+    }
+
+    /**
+     * 逐个读取复合标签列表的元素，每个元素读取完后立即交给处理器，不保留整个列表。不是列表或元素不是复合标签时跳过。
+     *
+     * @param type     值的类型
+     * @param consumer 元素处理器
+     * @throws IOException 读取失败时抛出
+     */
+    public void readCompoundList(byte type, Consumer<NBTTagCompound> consumer) throws IOException {
+        if (type != Constants.NBT.TAG_LIST) {
+            this.skipValue(type);
+            return;
+        }
+        final long list = this.beginList();
+        final byte elementType = listType(list);
+        for (int i = 0; i < listLength(list); i++) {
+            if (elementType == Constants.NBT.TAG_COMPOUND) {
+                consumer.accept((NBTTagCompound) this.readValue(elementType));
+            } else {
+                this.skipValue(elementType);
+            }
+        }
+    }
+
+    /**
+     * 读取整数类型的值，其他类型的值会被跳过。
+     *
+     * @param type 值的类型
+     * @return 读取的值，不是整数类型时返回 0
+     * @throws IOException 读取失败时抛出
+     */
+    public long readLong(byte type) throws IOException {
+        switch (type) {
+            case Constants.NBT.TAG_BYTE:
+                return this.in.readByte();
+            case Constants.NBT.TAG_SHORT:
+                return this.in.readShort();
+            case Constants.NBT.TAG_INT:
+                return this.in.readInt();
+            case Constants.NBT.TAG_LONG:
+                return this.in.readLong();
+            default:
+                this.skipValue(type);
+                return 0;
+        }
+    }
+
+    /**
+     * 读取字符串类型的值，其他类型的值会被跳过。
+     *
+     * @param type 值的类型
+     * @return 读取的值，不是字符串类型时返回空字符串
+     * @throws IOException 读取失败时抛出
+     */
+    public String readString(byte type) throws IOException {
+        if (type == Constants.NBT.TAG_STRING) {
+            return this.in.readUTF();
+        }
+        this.skipValue(type);
+        return "";
+    }
+
+    /**
+     * 将值完整地读取为标签。
+     *
+     * @param type 值的类型
+     * @return 读取的标签
+     * @throws IOException 读取失败时抛出
+     */
+    public NBTBase readValue(byte type) throws IOException {
+        return this.readValue(type, 0);
+    }
+
+    /**
+     * 跳过值。
+     *
+     * @param type 值的类型
+     * @throws IOException 读取失败时抛出
+     */
+    public void skipValue(byte type) throws IOException {
+        this.skipValue(type, 0);
+    }
+
+    private NBTBase readValue(byte type, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("NBT tag nested too deep");
+        }
+        switch (type) {
+            case Constants.NBT.TAG_BYTE:
+                return new NBTTagByte(this.in.readByte());
+            case Constants.NBT.TAG_SHORT:
+                return new NBTTagShort(this.in.readShort());
+            case Constants.NBT.TAG_INT:
+                return new NBTTagInt(this.in.readInt());
+            case Constants.NBT.TAG_LONG:
+                return new NBTTagLong(this.in.readLong());
+            case Constants.NBT.TAG_FLOAT:
+                return new NBTTagFloat(this.in.readFloat());
+            case Constants.NBT.TAG_DOUBLE:
+                return new NBTTagDouble(this.in.readDouble());
+            case Constants.NBT.TAG_BYTE_ARRAY: {
+                final byte[] bytes = new byte[this.in.readInt()];
+                this.in.readFully(bytes);
+                return new NBTTagByteArray(bytes);
+            }
+            case Constants.NBT.TAG_STRING:
+                return new NBTTagString(this.in.readUTF());
+            case Constants.NBT.TAG_LIST: {
+                final long list = this.beginList();
+                final NBTTagList tag = new NBTTagList();
+                for (int i = 0; i < listLength(list); i++) {
+                    tag.appendTag(this.readValue(listType(list), depth + 1));
+                }
+                return tag;
+            }
+            case Constants.NBT.TAG_COMPOUND: {
+                final NBTTagCompound tag = new NBTTagCompound();
+                byte entry;
+                while ((entry = this.in.readByte()) != Constants.NBT.TAG_END) {
+                    final String key = this.in.readUTF();
+                    tag.setTag(key, this.readValue(entry, depth + 1));
+                }
+                return tag;
+            }
+            case Constants.NBT.TAG_INT_ARRAY: {
+                final int[] ints = new int[this.in.readInt()];
+                for (int i = 0; i < ints.length; i++) {
+                    ints[i] = this.in.readInt();
+                }
+                return new NBTTagIntArray(ints);
+            }
+            default:
+                throw new IOException("Unknown NBT tag type " + type);
+        }
+    }
+
+    private void skipValue(byte type, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("NBT tag nested too deep");
+        }
+        switch (type) {
+            case Constants.NBT.TAG_BYTE:
+                this.skip(1);
+                break;
+            case Constants.NBT.TAG_SHORT:
+                this.skip(2);
+                break;
+            case Constants.NBT.TAG_INT:
+            case Constants.NBT.TAG_FLOAT:
+                this.skip(4);
+                break;
+            case Constants.NBT.TAG_LONG:
+            case Constants.NBT.TAG_DOUBLE:
+                this.skip(8);
+                break;
+            case Constants.NBT.TAG_BYTE_ARRAY:
+                this.skip(this.in.readInt());
+                break;
+            case Constants.NBT.TAG_STRING:
+                this.skip(this.in.readUnsignedShort());
+                break;
+            case Constants.NBT.TAG_LIST: {
+                final long list = this.beginList();
+                for (int i = 0; i < listLength(list); i++) {
+                    this.skipValue(listType(list), depth + 1);
+                }
+                break;
+            }
+            case Constants.NBT.TAG_COMPOUND: {
+                byte entry;
+                while ((entry = this.in.readByte()) != Constants.NBT.TAG_END) {
+                    this.skip(this.in.readUnsignedShort());
+                    this.skipValue(entry, depth + 1);
+                }
+                break;
+            }
+            case Constants.NBT.TAG_INT_ARRAY:
+                this.skip(this.in.readInt() * 4L);
+                break;
+            default:
+                throw new IOException("Unknown NBT tag type " + type);
+        }
+    }
+
+    private void skip(long bytes) throws IOException {
+        while (bytes > 0) {
+            final int skipped = this.in.skipBytes((int) Math.min(bytes, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                // skipBytes 可能提前返回，逐字节读取以区分流结束
+                this.in.readByte();
+                bytes--;
+            } else {
+                bytes -= skipped;
+            }
+        }
+    }
+}
@@ -2,6 +2,9 @@ package moe.takochan.takotech.common.storage.inventory;
 
 import static appeng.me.storage.CellInventory.getCell;
 
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 import net.minecraft.inventory.IInventory;
 import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NBTTagCompound;
@@ -20,7 +23,9 @@ import appeng.api.storage.StorageChannel;
 import appeng.api.storage.data.IAEItemStack;
 import appeng.api.storage.data.IItemList;
 import appeng.util.IterationCounter;
+import moe.takochan.takotech.common.data.CellHeapGovernor;
 import moe.takochan.takotech.common.data.CellItemStorageData;
+import moe.takochan.takotech.common.data.ItemListingCursor;
 import moe.takochan.takotech.common.item.ae.ItemOreStorageCell;
 import moe.takochan.takotech.common.storage.CellItemSavedData;
 import moe.takochan.takotech.common.storage.ITakoCellInventory;
@@ -35,8 +40,12 @@ public class OreStorageCellInventory implements ITakoCellInventory {
     // NBT标签名称，用于存储物品类型和数量的标签
     private static final String ITEM_TYPE_TAG = "it";
     private static final String ITEM_COUNT_TAG = "ic";
-    // 元件的数据存储实例
-    protected final CellItemStorageData storageData;
+    // 等待在本 tick 结束时发布保存通知的元件
+    private static final Set<OreStorageCellInventory> PENDING_SAVES = new LinkedHashSet<>();
+    // 尚未分配硬盘的元件使用的空硬盘，只读
+    private static final CellItemStorageData UNALLOCATED = new CellItemStorageData("");
+    // 元件的数据存储实例，尚未分配硬盘时为 null
+    protected CellItemStorageData storageData;
     // 存储的物品数量和物品类型数量
     private final long storedItemCount;
     // 元件的物品堆栈、保存提供器和NBT数据
@@ -47,8 +56,8 @@ public class OreStorageCellInventory implements ITakoCellInventory {
     // 原件类型实例
     private final ItemOreStorageCell cellType;
     private int storedItemTypes;
-    // 元件中的物品列表
-    private IItemList<IAEItemStack> cellItems;
+    // 物品列表是否已经加载过
+    private boolean cellItemsLoaded;
 
     /**
      * 初始化元件的物品堆栈和保存提供器。
@@ -76,7 +85,7 @@ public class OreStorageCellInventory implements ITakoCellInventory {
         // 获取元件实例
         this.cellType = (ItemOreStorageCell) this.cellItem.getItem();
 
-        // 获取元件的数据存储实例
+        // 获取元件的数据存储实例，新元件在第一次存入物品时才分配硬盘
         this.storageData = CommonUtils.isServer() ? CellItemSavedData.getInstance()
             .getDataStorage(this.getItemStack()) : null;
     }
@@ -166,12 +175,14 @@ public class OreStorageCellInventory implements ITakoCellInventory {
 
     /**
      * 判断该元件是否能够存储新的物品。
+     * <p>
+     * 已加载硬盘的估算内存超过 {@link CellHeapGovernor} 的硬预算时，所有元件都不再接受新的物品类型。
      *
      * @return 返回是否可以存储新的物品。
      */
     @Override
     public boolean canHoldNewItem() {
-        return this.getStoredItemTypes() <= this.getTotalItemTypes();
+        return this.getStoredItemTypes() <= this.getTotalItemTypes() && CellHeapGovernor.canAddTypes();
     }
 
     /**
@@ -314,42 +325,80 @@ public class OreStorageCellInventory implements ITakoCellInventory {
         if (input == null || input.getStackSize() == 0) {
             return null;
         }
-        // 检查物品是否在黑名单中，如果是，则不允许注入，直接返回输入
-        if (this.cellType.isBlackListed(this.cellItem, input)) {
+        // 检查物品是否允许存入元件
+        if (!this.canAccept(input)) {
             return input;
         }
 
-        // 检查输入物品是否为元件
-        if (isStorageCell(input)) {
-            final IMEInventory<IAEItemStack> meInventory = getCell(input.getItemStack(), null);
-
-            // 如果物品堆栈是有效的元件且非空，则直接返回输入物品堆栈
-            if (meInventory != null && !this.isEmpty(meInventory)) {
-                return input;
-            }
-        }
-
         // 确保注入的物品数量大于0
         if (input.getStackSize() > 0) {
-            // 查找元件中是否已有该物品类型
-            final IAEItemStack existingItem = this.getCellItems()
-                .findPrecise(input);
-            // 如果元件中已有该物品类型，则更新该物品数量
-            if (existingItem != null && mode == Actionable.MODULATE) {
-                existingItem.setStackSize(existingItem.getStackSize() + input.getStackSize());
-                this.saveChanges();
-            } else if (this.canHoldNewItem() && mode == Actionable.MODULATE) {
-                // 如果元件中无该物品类型，并且元件中还有剩余空间，则添加该物品类型
-                // 确保注入的物品数量大于0
-                this.cellItems.add(input);
-                this.saveChanges();
+            // 元件没有剩余的类型或内存预算已满时无法存入新的物品类型，模拟时同样需要检查
+            if (mode == Actionable.SIMULATE) {
+                return this.canStore(input) ? null : input;
+            }
+            if (!this.storeItem(input)) {
+                return input;
             }
+            this.saveChanges(input, input.getStackSize());
             return null;
         }
         // 如果无法存储新物品，返回输入物品
         return input;
     }
 
+    /**
+     * 检查物品是否允许存入元件：不在黑名单中，且不是非空的存储元件。
+     *
+     * @param input 要注入的物品
+     * @return 允许存入时返回 true
+     */
+    private boolean canAccept(IAEItemStack input) {
+        // 检查物品是否在黑名单中，如果是，则不允许注入
+        if (this.cellType.isBlackListed(this.cellItem, input)) {
+            return false;
+        }
+
+        // 检查输入物品是否为元件
+        if (isStorageCell(input)) {
+            final IMEInventory<IAEItemStack> meInventory = getCell(input.getItemStack(), null);
+
+            // 如果物品堆栈是有效的元件且非空，则不允许注入
+            return meInventory == null || this.isEmpty(meInventory);
+        }
+        return true;
+    }
+
+    /**
+     * 判断物品是否可以存入：元件中已有该物品类型，或者还能存入新的物品类型。
+     *
+     * @param input 要注入的物品
+     * @return 可以存入时返回 true
+     */
+    private boolean canStore(IAEItemStack input) {
+        return this.getCellItems()
+            .contains(input) || this.canHoldNewItem();
+    }
+
+    /**
+     * 将物品数量加入元件，不触发保存。
+     *
+     * @param input 要注入的物品
+     * @return 元件中已有该物品类型，或者元件中还有剩余空间时返回 true
+     */
+    private boolean storeItem(IAEItemStack input) {
+        if (!this.canStore(input)) {
+            return false;
+        }
+        CellItemStorageData items = this.getCellItems();
+        if (this.storageData == null) {
+            this.storageData = CellItemSavedData.getInstance()
+                .allocateDisk(this.cellItem);
+            items = this.storageData;
+        }
+        items.add(input, input.getStackSize());
+        return true;
+    }
+
     /**
      * 从元件提取物品。
      *
@@ -370,24 +419,25 @@ public class OreStorageCellInventory implements ITakoCellInventory {
         // 创建提取物品堆栈
         IAEItemStack results = null;
 
-        // 查找元件中是否已有该物品类型
-        final IAEItemStack l = this.getCellItems()
-            .findPrecise(request);
+        // 查找元件中该物品的数量
+        final long stored = this.getCellItems()
+            .getCount(request);
 
         // 如果物品存在
-        if (l != null) {
+        if (stored > 0) {
             // 复制物品堆栈，准备返回提取结果
-            results = l.copy();
+            results = request.copy();
 
             // 如果元件中的物品数量小于或等于要提取的数量
-            if (l.getStackSize() <= size) {
+            if (stored <= size) {
                 // 设置提取结果的堆栈数量为元件中现有物品的数量
-                results.setStackSize(l.getStackSize());
+                results.setStackSize(stored);
 
                 // 清空元件中该物品
                 if (mode == Actionable.MODULATE) {
-                    l.setStackSize(0);
-                    this.saveChanges();
+                    this.getCellItems()
+                        .add(request, -stored);
+                    this.saveChanges(results, -stored);
                 }
             } else {
                 // 设置提取结果的堆栈数量为要提取的数量
@@ -395,8 +445,9 @@ public class OreStorageCellInventory implements ITakoCellInventory {
 
                 // 从元件中减去提取的物品数量
                 if (mode == Actionable.MODULATE) {
-                    l.setStackSize(l.getStackSize() - size);
-                    this.saveChanges();
+                    this.getCellItems()
+                        .add(request, -size);
+                    this.saveChanges(results, -size);
                 }
             }
         }
@@ -423,16 +474,14 @@ public class OreStorageCellInventory implements ITakoCellInventory {
      */
     @Override
     public IAEItemStack getAvailableItem(@NotNull IAEItemStack request, int iteration) {
-        IAEItemStack is = this.getCellItems()
+        return this.getCellItems()
             .findPrecise(request);
-        if (is != null) {
-            return is.copy();
-        }
-        return null;
     }
 
     /**
      * 获取所有可用物品堆栈。
+     * <p>
+     * AE 要求在一次调用中列出全部物品，这里一次取完 {@link #openListing()} 的游标。游标只复制键和数量，物品堆栈从缓存的原型复制。
      *
      * @param out       存储可用物品堆栈的输出列表。
      * @param iteration 当前迭代次数，通常用于深度控制或递归限制。
@@ -440,12 +489,21 @@ public class OreStorageCellInventory implements ITakoCellInventory {
      */
     @Override
     public IItemList<IAEItemStack> getAvailableItems(IItemList<IAEItemStack> out, int iteration) {
-        for (final IAEItemStack ais : this.getCellItems()) {
-            out.add(ais);
-        }
+        this.openListing()
+            .drain(out);
         return out;
     }
 
+    /**
+     * 创建分批列出元件内容的游标，超大元件可以把列出分摊到多个 tick。
+     *
+     * @return 游标，列出的是创建时的内容
+     */
+    public ItemListingCursor openListing() {
+        return this.getCellItems()
+            .openCursor();
+    }
+
     /**
      * 获取磁盘ID
      *
@@ -462,18 +520,20 @@ public class OreStorageCellInventory implements ITakoCellInventory {
     }
 
     /**
-     * 获取当前元件中的物品列表。
+     * 获取当前元件的硬盘数据。
      * <p>
-     * 该方法首先检查当前元件是否已经加载了物品列表。如果物品列表尚未加载（即 `cellItems` 为 `null`）， 则会调用 `loadCellItems()` 方法来加载物品列表。最后返回元件中的物品列表。
+     * 该方法首先检查当前元件是否已经加载了物品列表。如果物品列表尚未加载， 则会调用 `loadCellItems()` 方法来加载物品列表。最后返回元件的硬盘数据。
+     * <p>
+     * 硬盘长时间未访问时可能被卸载，硬盘数据会在访问时自行重新读取分片。尚未分配硬盘时返回只读的空硬盘。
      *
-     * @return 返回一个物品列表，包含当前元件中所有物品的堆栈信息。
+     * @return 返回元件的硬盘数据。
      */
-    private IItemList<IAEItemStack> getCellItems() {
-        if (this.cellItems == null) {
+    private CellItemStorageData getCellItems() {
+        if (!this.cellItemsLoaded) {
             this.loadCellItems();
         }
 
-        return this.cellItems;
+        return this.storageData != null ? this.storageData : UNALLOCATED;
     }
 
     /**
@@ -499,20 +559,16 @@ public class OreStorageCellInventory implements ITakoCellInventory {
      * 从元件加载物品列表。
      */
     private void loadCellItems() {
-        // 如果物品列表为空，则创建一个新列表
-        if (this.cellItems == null) {
-            this.cellItems = this.storageData.getItems();
-            for (IAEItemStack ais : this.cellItems) {
-                if (ais != null && ais.getStackSize() <= 0) {
-                    ais.reset();
-                }
-            }
+        // 首次访问时读取硬盘内容
+        if (!this.cellItemsLoaded) {
+            this.cellItemsLoaded = true;
         }
 
         // 更新物品类型数量
         this.updateItemTypes();
+        this.writeItemTypes();
 
-        if (!this.getDiskID()
+        if (this.storageData != null && !this.getDiskID()
             .equals(this.storageData.getDiskID())) {
             tagCompound.setString(NBTConstants.DISK_ID, this.storageData.getDiskID());
         }
@@ -520,25 +576,53 @@ public class OreStorageCellInventory implements ITakoCellInventory {
 
     /**
      * 保存物品更改。
+     *
+     * @param item  发生变化的物品
+     * @param delta 数量变化，注入为正，提取为负
      */
-    private void saveChanges() {
+    private void saveChanges(IAEItemStack item, long delta) {
 
         // 更新物品类型数量
         this.updateItemTypes();
 
-        if (this.container != null) {
-            this.container.saveChanges(this);
-        }
+        // 元件NBT和保存提供器的通知推迟到 tick 结束时合并发布
+        PENDING_SAVES.add(this);
         CellItemSavedData.getInstance()
-            .markDirty();
+            .recordChange(this.storageData, item, delta);
+    }
+
+    /**
+     * 发布本 tick 内发生变化的元件的保存通知，每个元件只更新一次NBT并通知一次保存提供器。
+     * <p>
+     * 在服务端 tick 结束时调用。
+     */
+    public static void flushPendingSaves() {
+        if (PENDING_SAVES.isEmpty()) {
+            return;
+        }
+
+        final OreStorageCellInventory[] pending = PENDING_SAVES.toArray(new OreStorageCellInventory[0]);
+        PENDING_SAVES.clear();
+        for (final OreStorageCellInventory inventory : pending) {
+            inventory.writeItemTypes();
+            if (inventory.container != null) {
+                inventory.container.saveChanges(inventory);
+            }
+        }
     }
 
     /**
-     * 更新物品类型数量。
+     * 更新物品类型数量，元件NBT中的数量由 {@link #writeItemTypes()} 写入。
      */
     private void updateItemTypes() {
-        this.storedItemTypes = this.cellItems.size();
-        if (this.cellItems.isEmpty()) {
+        this.storedItemTypes = this.storageData != null ? this.storageData.getStoredTypes() : 0;
+    }
+
+    /**
+     * 将物品类型数量写入元件NBT。
+     */
+    private void writeItemTypes() {
+        if (this.storedItemTypes == 0) {
             this.tagCompound.removeTag(ITEM_TYPE_TAG);
         } else {
             this.tagCompound.setInteger(ITEM_TYPE_TAG, this.storedItemTypes);
@@ -0,0 +1,74 @@
+package moe.takochan.takotech.config;
+
+import com.gtnewhorizon.gtnhlib.config.Config;
+
+import moe.takochan.takotech.common.Reference;
+
+@Config(modid = Reference.MODID, configSubDirectory = "TakoTech", filename = "config", category = "orecell")
+public class OreStorageCellConfig {
+
+    @Config.Comment("是否在后台线程中编码并写入矿物存储元件数据。服务端线程只负责复制发生变化的硬盘内容。")
+    @Config.DefaultBoolean(true)
+    public static boolean asyncSave;
+
+    @Config.Comment("是否使用紧凑的二进制格式写入硬盘分片。关闭时使用NBT格式，两种格式都可以读取。")
+    @Config.DefaultBoolean(true)
+    public static boolean binaryFormat;
+
+    @Config.Comment("加载世界时并行读取硬盘分片使用的线程数，物品仍在服务端线程上创建。0 表示使用 CPU 核心数减一。")
+    @Config.DefaultInt(0)
+    @Config.RangeInt(min = 0, max = 64)
+    public static int loadThreads;
+
+    @Config.Comment("是否启用变更日志。启用后自动保存只追加注入和提取记录，完整的硬盘数据由定期压缩写入。")
+    @Config.DefaultBoolean(true)
+    public static boolean journal;
+
+    @Config.Comment("变更日志写入文件的间隔（tick）。崩溃时最多丢失这段时间内的变更。")
+    @Config.DefaultInt(20)
+    @Config.RangeInt(min = 1, max = 1200)
+    public static int journalFlushTicks;
+
+    @Config.Comment("将变更日志压缩进硬盘分片的间隔（分钟）。")
+    @Config.DefaultInt(10)
+    @Config.RangeInt(min = 1, max = 1440)
+    public static int journalCompactMinutes;
+
+    @Config.Comment("变更日志超过该大小（MB）时立即压缩。")
+    @Config.DefaultInt(16)
+    @Config.RangeInt(min = 1, max = 1024)
+    public static int journalCompactSizeMB;
+
+    @Config.Comment("硬盘超过该时间（分钟）未被访问时从内存中卸载，下次访问时重新读取。0 表示不按时间卸载。")
+    @Config.DefaultInt(15)
+    @Config.RangeInt(min = 0, max = 10080)
+    public static int evictIdleMinutes;
+
+    @Config.Comment("已加载硬盘的物品类型总数上限，超过时优先卸载最久未访问的硬盘。0 表示不限制。")
+    @Config.DefaultInt(0)
+    @Config.RangeInt(min = 0, max = Integer.MAX_VALUE)
+    public static int evictMaxLoadedTypes;
+
+    @Config.Comment("已加载硬盘估算内存占用的软预算，占最大堆内存的百分比。超过时优先卸载最久未访问的硬盘并在日志中警告。0 表示不限制。")
+    @Config.DefaultInt(25)
+    @Config.RangeInt(min = 0, max = 90)
+    public static int heapSoftBudgetPercent;
+
+    @Config.Comment("已加载硬盘估算内存占用的硬预算，占最大堆内存的百分比。超过时元件拒绝存入新的物品类型。0 表示不限制。")
+    @Config.DefaultInt(40)
+    @Config.RangeInt(min = 0, max = 90)
+    public static int heapHardBudgetPercent;
+
+    @Config.Comment("是否为已加载的硬盘维护只读快照，供其他线程读取元件内容。每个物品类型约多占用 16 字节，只复制发生变化的部分，发布占用后台任务的时间预算。")
+    @Config.DefaultBoolean(true)
+    public static boolean contentSnapshots;
+
+    @Config.Comment("硬盘超过该时间（小时，按世界运行时间计算）没有被任何元件引用时视为孤立硬盘，分片移入 archive 目录。归档的硬盘在元件再次出现时会自动恢复。0 表示不回收。")
+    @Config.DefaultInt(720)
+    @Config.RangeInt(min = 0, max = 87600)
+    public static int orphanGraceHours;
+
+    @Config.Comment("是否在后台分批扫描已加载的物品栏，确认哪些硬盘仍被元件引用。关闭时只通过元件访问确认引用。")
+    @Config.DefaultBoolean(true)
+    public static boolean orphanScan;
+}
@@ -9,7 +9,7 @@ import moe.takochan.takotech.common.Reference;
 @Config(modid = Reference.MODID, configSubDirectory = "TakoTech", filename = "config")
 public class TakoTechConfig {
 
-    @Config.Comment("匹配矿典前缀（不支持正则哦）")
+    @Config.Comment("匹配矿典前缀，也支持通配符（dust*Iron）、正则（/gem.*/ 或 regex:gem.*）和以 ! 开头的排除写法")
     @Config.DefaultStringList(
         value = { "ore", // 矿石，粗矿oreRaw
             "rawOre", // 粗矿
@@ -20,6 +20,11 @@ public class TakoTechConfig {
     @Config.Sync
     public static String[] oreDefs;
 
+    @Config.Comment("后台任务（硬盘维护、准入表重建等）每 tick 最多占用的时间（毫秒）。")
+    @Config.DefaultInt(2)
+    @Config.RangeInt(min = 1, max = 50)
+    public static int schedulerBudgetMs;
+
     /**
      * 初始化配置。
      */
@@ -28,6 +33,7 @@ public class TakoTechConfig {
             ConfigurationManager.registerConfig(TakoTechConfig.class);
             ConfigurationManager.registerConfig(WebControllerConfig.class);
             ConfigurationManager.registerConfig(ToolboxConfig.class);
+            ConfigurationManager.registerConfig(OreStorageCellConfig.class);
         } catch (ConfigException e) {
             throw new RuntimeException(e);
         }
@@ -8,6 +8,26 @@ public class NBTConstants {
 
     public static final String DISK_ITEMS = "disk_items";
 
+    public static final String DISK_FORMAT = "disk_format";
+
+    public static final String DISK_INDEX = "disk_index";
+
+    public static final String DISK_TYPES = "disk_types";
+
+    public static final String DISK_COUNT = "disk_count";
+
+    public static final String DISK_LAST_SEEN = "disk_last_seen";
+
+    public static final String DISK_AGGREGATES = "disk_aggregates";
+
+    public static final String AGGREGATE_TYPES = "aggregate_types";
+
+    public static final String AGGREGATE_MATERIAL = "aggregate_material";
+
+    public static final String AGGREGATE_COUNT = "aggregate_count";
+
+    public static final String JOURNAL_SEQ = "journal_seq";
+
     public static final String CONTROLLER_DATA = "controller_data";
 
     public static final String TOOLBOX_ITEMS = "Items";
@@ -0,0 +1,278 @@
+package moe.takochan.takotech.utils;
+
+import java.util.Arrays;
+
+/**
+ * 基于开放寻址（线性探测）的 long -> long 哈希表。
+ * <p>
+ * 键和值分别存放在两个基本类型数组中，查找、写入都不会产生装箱对象。 {@link #EMPTY_KEY} 被用作空槽位标记，不能作为键使用。
+ * <p>
+ * 非线程安全。
+ */
+public class LongLongHashMap {
+
+    /**
+     * 空槽位标记，不能作为键使用。
+     */
+    public static final long EMPTY_KEY = Long.MIN_VALUE;
+
+    // 默认初始容量
+    private static final int DEFAULT_CAPACITY = 16;
+    // 负载因子
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+    // 扩容阈值
+    private int maxFill;
+
+    public LongLongHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expected 预计的元素数量
+     */
+    public LongLongHashMap(int expected) {
+        this.allocate(tableSize(expected));
+    }
+
+    /**
+     * @return 元素数量
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return 没有任何元素时返回 true
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * 判断是否包含指定的键。
+     *
+     * @param key 键
+     * @return 包含时返回 true
+     */
+    public boolean containsKey(long key) {
+        return this.find(key) >= 0;
+    }
+
+    /**
+     * 获取键对应的值。
+     *
+     * @param key          键
+     * @param defaultValue 不存在时返回的值
+     * @return 键对应的值
+     */
+    public long get(long key, long defaultValue) {
+        final int slot = this.find(key);
+        return slot >= 0 ? this.values[slot] : defaultValue;
+    }
+
+    /**
+     * 写入键值对。
+     *
+     * @param key   键
+     * @param value 值
+     */
+    public void put(long key, long value) {
+        final int slot = this.insertionSlot(key);
+        this.values[slot] = value;
+    }
+
+    /**
+     * 将键对应的值加上增量，不存在时视为 0。
+     *
+     * @param key   键
+     * @param delta 增量
+     * @return 相加后的值
+     */
+    public long addTo(long key, long delta) {
+        final int slot = this.insertionSlot(key);
+        return this.values[slot] += delta;
+    }
+
+    /**
+     * 删除键值对，之后的连续槽位会向前移动，不留下删除标记。
+     *
+     * @param key 键
+     * @return 删除时返回 true，键不存在时返回 false
+     */
+    public boolean remove(long key) {
+        int slot = this.find(key);
+        if (slot < 0) {
+            return false;
+        }
+
+        // 向后查找可以移入空位的元素，保证线性探测链不会断开
+        int next = (slot + 1) & this.mask;
+        long current;
+        while ((current = this.keys[next]) != EMPTY_KEY) {
+            final int home = mix(current) & this.mask;
+            // home 不在 (slot, next] 区间内时，元素可以移动到 slot
+            if (((next - home) & this.mask) >= ((next - slot) & this.mask)) {
+                this.keys[slot] = current;
+                this.values[slot] = this.values[next];
+                slot = next;
+            }
+            next = (next + 1) & this.mask;
+        }
+        this.keys[slot] = EMPTY_KEY;
+        this.size--;
+        return true;
+    }
+
+    /**
+     * 清空所有元素，保留当前容量。
+     */
+    public void clear() {
+        Arrays.fill(this.keys, EMPTY_KEY);
+        this.size = 0;
+    }
+
+    /**
+     * 复制一份独立的哈希表，两者之后的修改互不影响。
+     *
+     * @return 副本
+     */
+    public LongLongHashMap copy() {
+        final LongLongHashMap copy = new LongLongHashMap(0);
+        copy.keys = this.keys.clone();
+        copy.values = this.values.clone();
+        copy.mask = this.mask;
+        copy.size = this.size;
+        copy.maxFill = this.maxFill;
+        return copy;
+    }
+
+    /**
+     * 获取槽位数量，用于配合 {@link #isUsed(int)}、{@link #keyAt(int)} 和 {@link #valueAt(int)} 无分配地遍历。
+     *
+     * @return 槽位数量
+     */
+    public int capacity() {
+        return this.keys.length;
+    }
+
+    /**
+     * @param slot 槽位
+     * @return 槽位中有元素时返回 true
+     */
+    public boolean isUsed(int slot) {
+        return this.keys[slot] != EMPTY_KEY;
+    }
+
+    /**
+     * @param slot 槽位
+     * @return 槽位中的键
+     */
+    public long keyAt(int slot) {
+        return this.keys[slot];
+    }
+
+    /**
+     * @param slot 槽位
+     * @return 槽位中的值
+     */
+    public long valueAt(int slot) {
+        return this.values[slot];
+    }
+
+    /**
+     * 查找键所在的槽位。
+     *
+     * @param key 键
+     * @return 槽位，不存在时返回 -1
+     */
+    private int find(long key) {
+        int slot = mix(key) & this.mask;
+        long current;
+        while ((current = this.keys[slot]) != EMPTY_KEY) {
+            if (current == key) {
+                return slot;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        return -1;
+    }
+
+    /**
+     * 查找键所在的槽位，不存在时插入并将值初始化为 0。
+     *
+     * @param key 键
+     * @return 槽位
+     */
+    private int insertionSlot(long key) {
+        if (key == EMPTY_KEY) {
+            throw new IllegalArgumentException("Key " + key + " is reserved");
+        }
+
+        int slot = mix(key) & this.mask;
+        long current;
+        while ((current = this.keys[slot]) != EMPTY_KEY) {
+            if (current == key) {
+                return slot;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+
+        if (this.size >= this.maxFill) {
+            this.rehash(this.keys.length << 1);
+            return this.insertionSlot(key);
+        }
+
+        this.keys[slot] = key;
+        this.values[slot] = 0;
+        this.size++;
+        return slot;
+    }
+
+    private void rehash(int newCapacity) {
+        final long[] oldKeys = this.keys;
+        final long[] oldValues = this.values;
+        this.allocate(newCapacity);
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            final long key = oldKeys[i];
+            if (key != EMPTY_KEY) {
+                int slot = mix(key) & this.mask;
+                while (this.keys[slot] != EMPTY_KEY) {
+                    slot = (slot + 1) & this.mask;
+                }
+                this.keys[slot] = key;
+                this.values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.values = new long[capacity];
+        Arrays.fill(this.keys, EMPTY_KEY);
+        this.mask = capacity - 1;
+        this.maxFill = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * 计算容纳指定数量元素所需的槽位数量（2的幂）。
+     */
+    private static int tableSize(int expected) {
+        final int needed = Math.max(DEFAULT_CAPACITY, (int) Math.ceil(expected / LOAD_FACTOR));
+        return Integer.highestOneBit(needed - 1) << 1;
+    }
+
+    /**
+     * 打散键的高位，避免相邻的键集中在同一段槽位。
+     */
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (int) (h ^ (h >>> 16));
+    }
+}
@@ -1,16 +1,10 @@
 package moe.takochan.takotech.utils;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
+import java.util.HashSet;
+import java.util.Set;
 
 import net.minecraft.item.ItemStack;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-
 import appeng.api.AEApi;
 import appeng.api.storage.data.IAEItemStack;
 import appeng.api.storage.data.IItemList;
@@ -20,91 +14,75 @@ import appeng.util.item.OreReference;
 import appeng.util.prioitylist.IPartitionList;
 import gregtech.api.enums.Materials;
 import gregtech.api.enums.OrePrefixes;
-import gregtech.api.util.GTOreDictUnificator;
 
-@SuppressWarnings("Guava")
+/**
+ * 矿物存储元件的模糊分区列表。
+ * <p>
+ * 配置中的矿石会匹配同一材料的所有矿石变体（不同石头、贫瘠、致密等），其余物品精确匹配。 矿石变体通过 {@link OreMaterialIndex} 映射到材料，分区只保存材料集合，判断时只需一次查表。
+ */
 public class OreCellFuzzyPartitionList implements IPartitionList<IAEItemStack> {
 
-    private static final List<OrePrefixes> PREFIXES = new ArrayList<>();
-    private static final Cache<IAEItemStack, List<IAEItemStack>> CACHE = CacheBuilder.newBuilder()
-        .expireAfterAccess(24, TimeUnit.HOURS) // 过期时间
-        .maximumSize(10240) // 最大缓存数量
-        .build();
-
-    static {
-        PREFIXES.add(OrePrefixes.ore);
-        PREFIXES.add(OrePrefixes.rawOre);
-        PREFIXES.add(OrePrefixes.oreBlackgranite);
-        PREFIXES.add(OrePrefixes.oreRedgranite);
-        PREFIXES.add(OrePrefixes.oreMarble);
-        PREFIXES.add(OrePrefixes.oreBasalt);
-        PREFIXES.add(OrePrefixes.oreNetherrack);
-        PREFIXES.add(OrePrefixes.oreNether);
-        PREFIXES.add(OrePrefixes.oreDense);
-        PREFIXES.add(OrePrefixes.oreRich);
-        PREFIXES.add(OrePrefixes.oreNormal);
-        PREFIXES.add(OrePrefixes.oreSmall);
-        PREFIXES.add(OrePrefixes.orePoor);
-        PREFIXES.add(OrePrefixes.oreEndstone);
-        PREFIXES.add(OrePrefixes.oreEnd);
-    }
-
-    private final IItemList<IAEItemStack> list;
+    // 配置中的矿石对应的材料
+    private final Set<Materials> materials = new HashSet<>();
+    // 需要精确匹配的物品
+    private final IItemList<IAEItemStack> precise;
+    // 展开后的物品列表，只在需要时创建
+    private IItemList<IAEItemStack> expanded;
 
     public OreCellFuzzyPartitionList(IItemList<IAEItemStack> priorityList) {
-        this.list = AEApi.instance()
+        this.precise = AEApi.instance()
             .storage()
             .createItemList();
 
         for (IAEItemStack priorityItem : priorityList) {
-            List<IAEItemStack> expanded;
-            try {
-                expanded = CACHE.get(priorityItem, () -> {
-                    OreReference oreRef = OreHelper.INSTANCE.isOre(priorityItem.getItemStack());
-                    if (oreRef == null) {
-                        return Collections.singletonList(priorityItem);
-                    }
-                    List<IAEItemStack> result = new ArrayList<>();
-                    for (String dict : oreRef.getEquivalents()) {
-                        if (!dict.startsWith("ore") && !dict.startsWith("rawOre")) {
-                            result.add(priorityItem);
-                            continue;
-                        }
-
-                        Materials materials = OrePrefixes.getMaterial(dict);
-                        if (materials == null) continue;
-
-                        for (OrePrefixes prefix : PREFIXES) {
-                            List<ItemStack> itemStacks = GTOreDictUnificator.getOres(prefix, materials);
-                            for (ItemStack is : itemStacks) {
-                                result.add(AEItemStack.create(is));
-                            }
-                        }
-                    }
-
-                    return result;
-                });
-            } catch (ExecutionException e) {
-                expanded = Collections.singletonList(priorityItem);
+            OreReference oreRef = OreHelper.INSTANCE.isOre(priorityItem.getItemStack());
+            if (oreRef == null) {
+                this.precise.add(priorityItem);
+                continue;
             }
-            for (IAEItemStack expandedItem : expanded) {
-                this.list.add(expandedItem);
+            for (String dict : oreRef.getEquivalents()) {
+                if (!OreMaterialIndex.isOreDict(dict)) {
+                    this.precise.add(priorityItem);
+                    continue;
+                }
+
+                Materials material = OrePrefixes.getMaterial(dict);
+                if (material != null) {
+                    this.materials.add(material);
+                }
             }
         }
     }
 
     @Override
     public boolean isListed(IAEItemStack input) {
-        return list.findPrecise(input) != null;
+        if (!this.materials.isEmpty()
+            && this.materials.contains(OreMaterialIndex.getMaterial(input.getItem(), input.getItemDamage()))) {
+            return true;
+        }
+        return this.precise.findPrecise(input) != null;
     }
 
     @Override
     public boolean isEmpty() {
-        return this.list.isEmpty();
+        return this.materials.isEmpty() && this.precise.isEmpty();
     }
 
     @Override
     public Iterable<IAEItemStack> getItems() {
-        return this.list;
+        if (this.expanded == null) {
+            this.expanded = AEApi.instance()
+                .storage()
+                .createItemList();
+            for (IAEItemStack is : this.precise) {
+                this.expanded.add(is);
+            }
+            for (Materials material : this.materials) {
+                for (ItemStack is : OreMaterialIndex.getVariants(material)) {
+                    this.expanded.add(AEItemStack.create(is));
+                }
+            }
+        }
+        return this.expanded;
     }
 }
@@ -0,0 +1,200 @@
+package moe.takochan.takotech.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraftforge.oredict.OreDictionary;
+
+import gregtech.api.enums.Materials;
+import gregtech.api.enums.OrePrefixes;
+import gregtech.api.util.GTOreDictUnificator;
+import moe.takochan.takotech.common.data.CellItemStorageData;
+
+/**
+ * 矿石变体到 GT 材料的全局索引。
+ * <p>
+ * 对每个出现在 "ore"/"rawOre" 矿典中的材料，把 {@link #PREFIXES} 下的所有变体物品映射到该材料。 模糊分区只需查出输入物品的材料并判断是否在分区的材料集合中，不需要为每个分区展开全部变体。
+ * <p>
+ * 索引在 postInit 和世界加载（物品ID可能重新映射）时整体构建，之后注册的矿石变体通过 {@link #register(String, ItemStack)}
+ * 增量加入。已经发布的索引不会再被修改，增量更新时复制一份新索引再整体替换，读取方不需要加锁。
+ */
+public class OreMaterialIndex {
+
+    // 视为同一种矿石的矿典前缀
+    private static final List<OrePrefixes> PREFIXES = new ArrayList<>();
+
+    static {
+        PREFIXES.add(OrePrefixes.ore);
+        PREFIXES.add(OrePrefixes.rawOre);
+        PREFIXES.add(OrePrefixes.oreBlackgranite);
+        PREFIXES.add(OrePrefixes.oreRedgranite);
+        PREFIXES.add(OrePrefixes.oreMarble);
+        PREFIXES.add(OrePrefixes.oreBasalt);
+        PREFIXES.add(OrePrefixes.oreNetherrack);
+        PREFIXES.add(OrePrefixes.oreNether);
+        PREFIXES.add(OrePrefixes.oreDense);
+        PREFIXES.add(OrePrefixes.oreRich);
+        PREFIXES.add(OrePrefixes.oreNormal);
+        PREFIXES.add(OrePrefixes.oreSmall);
+        PREFIXES.add(OrePrefixes.orePoor);
+        PREFIXES.add(OrePrefixes.oreEndstone);
+        PREFIXES.add(OrePrefixes.oreEnd);
+    }
+
+    // 当前的索引
+    private static volatile Index index;
+
+    private OreMaterialIndex() {}
+
+    /**
+     * 根据当前的矿物词典重新构建索引。
+     */
+    public static synchronized void rebuild() {
+        index = build();
+    }
+
+    /**
+     * 把新注册的矿石变体加入索引，索引尚未构建时忽略，构建时会一并处理。
+     *
+     * @param name 矿典名称
+     * @param ore  注册的物品
+     */
+    public static synchronized void register(String name, ItemStack ore) {
+        final Index current = index;
+        if (current == null || ore == null || ore.getItem() == null || !isOreDict(name)) {
+            return;
+        }
+        final Materials materials = OrePrefixes.getMaterial(name);
+        if (materials == null || !isVariantName(name, materials)) {
+            return;
+        }
+
+        final long key = CellItemStorageData.key(ore.getItem(), ore.getItemDamage());
+        int id = current.indexOf(materials);
+        if (id >= 0 && current.materials.get(key, -1) == id) {
+            return;
+        }
+        Materials[] byId = current.byId;
+        if (id < 0) {
+            id = byId.length;
+            byId = Arrays.copyOf(byId, id + 1);
+            byId[id] = materials;
+        }
+        final LongLongHashMap materialsByKey = current.materials.copy();
+        materialsByKey.put(key, id);
+        index = new Index(materialsByKey, byId);
+    }
+
+    private static boolean isVariantName(String name, Materials materials) {
+        for (final OrePrefixes prefix : PREFIXES) {
+            if (name.equals(prefix.name() + materials.mName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 判断矿典名称是否属于矿石（"ore" 或 "rawOre" 开头）。
+     *
+     * @param dict 矿典名称
+     * @return 属于矿石时返回 true
+     */
+    public static boolean isOreDict(String dict) {
+        return dict.startsWith("ore") || dict.startsWith("rawOre");
+    }
+
+    /**
+     * 查找物品作为矿石变体所属的材料。
+     *
+     * @param item 物品
+     * @param meta 元数据
+     * @return 材料，不是任何材料的矿石变体时返回 null
+     */
+    public static Materials getMaterial(Item item, int meta) {
+        final Index current = getIndex();
+        long slot = current.materials.get(CellItemStorageData.key(item, meta), -1);
+        if (slot < 0) {
+            slot = current.materials.get(CellItemStorageData.key(item, OreDictionary.WILDCARD_VALUE), -1);
+        }
+        return slot >= 0 ? current.byId[(int) slot] : null;
+    }
+
+    /**
+     * 获取材料的所有矿石变体。
+     *
+     * @param materials 材料
+     * @return 变体物品
+     */
+    public static List<ItemStack> getVariants(Materials materials) {
+        final List<ItemStack> result = new ArrayList<>();
+        for (final OrePrefixes prefix : PREFIXES) {
+            result.addAll(GTOreDictUnificator.getOres(prefix, materials));
+        }
+        return result;
+    }
+
+    private static Index getIndex() {
+        Index current = index;
+        if (current == null) {
+            // 只会在 postInit 之前被使用时发生
+            rebuild();
+            current = index;
+        }
+        return current;
+    }
+
+    /**
+     * 遍历矿物词典收集矿石材料，再展开每种材料的变体。
+     */
+    private static Index build() {
+        final Set<Materials> found = new LinkedHashSet<>();
+        for (final String dict : OreDictionary.getOreNames()) {
+            if (isOreDict(dict)) {
+                final Materials materials = OrePrefixes.getMaterial(dict);
+                if (materials != null) {
+                    found.add(materials);
+                }
+            }
+        }
+
+        final Materials[] byId = found.toArray(new Materials[0]);
+        final LongLongHashMap materials = new LongLongHashMap(byId.length * PREFIXES.size());
+        for (int id = 0; id < byId.length; id++) {
+            for (final ItemStack is : getVariants(byId[id])) {
+                if (is != null && is.getItem() != null) {
+                    materials.put(CellItemStorageData.key(is.getItem(), is.getItemDamage()), id);
+                }
+            }
+        }
+        return new Index(materials, byId);
+    }
+
+    /**
+     * 物品到材料编号的映射，以及编号对应的材料。
+     */
+    private static class Index {
+
+        private final LongLongHashMap materials;
+        private final Materials[] byId;
+
+        private Index(LongLongHashMap materials, Materials[] byId) {
+            this.materials = materials;
+            this.byId = byId;
+        }
+
+        private int indexOf(Materials materials) {
+            for (int id = 0; id < this.byId.length; id++) {
+                if (this.byId[id] == materials) {
+                    return id;
+                }
+            }
+            return -1;
+        }
+    }
+}
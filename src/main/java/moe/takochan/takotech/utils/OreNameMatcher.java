@@ -0,0 +1,234 @@
+package moe.takochan.takotech.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import moe.takochan.takotech.TakoTechMod;
+
+/**
+ * 编译后的矿典名称匹配器。
+ * <p>
+ * 支持以下几种写法：
+ * <ul>
+ * <li>{@code ore}：前缀匹配，所有前缀合并为一棵前缀树，匹配开销只与名称长度有关</li>
+ * <li>{@code dust*Iron}、{@code gem?}：通配符，{@code *} 匹配任意个字符，{@code ?} 匹配一个字符，需要匹配完整名称</li>
+ * <li>{@code /crushed(Purified)?Iron/} 或 {@code regex:crushed(Purified)?Iron}：正则表达式，需要匹配完整名称</li>
+ * <li>以 {@code !} 开头的写法表示排除，排除优先于包含</li>
+ * </ul>
+ * 匹配器创建后不可修改，可以在多个线程间共享。
+ */
+public class OreNameMatcher {
+
+    // 不匹配任何名称的匹配器
+    public static final OreNameMatcher EMPTY = new OreNameMatcher(new Rules(), new Rules());
+
+    // 包含规则和排除规则
+    private final Rules includes;
+    private final Rules excludes;
+
+    private OreNameMatcher(Rules includes, Rules excludes) {
+        this.includes = includes;
+        this.excludes = excludes;
+    }
+
+    /**
+     * 编译匹配器。
+     *
+     * @param includes 包含的写法，以 {@code !} 开头的写法视为排除
+     * @param excludes 排除的写法
+     * @return 匹配器
+     */
+    public static OreNameMatcher compile(String[] includes, String[] excludes) {
+        final Builder include = new Builder();
+        final Builder exclude = new Builder();
+        if (includes != null) {
+            for (final String pattern : includes) {
+                if (pattern != null && pattern.startsWith("!")) {
+                    exclude.add(pattern.substring(1));
+                } else {
+                    include.add(pattern);
+                }
+            }
+        }
+        if (excludes != null) {
+            for (final String pattern : excludes) {
+                exclude.add(pattern);
+            }
+        }
+        return new OreNameMatcher(include.build(), exclude.build());
+    }
+
+    /**
+     * 判断矿典名称是否被允许：命中任一排除规则时不允许，否则命中任一包含规则时允许。
+     *
+     * @param name 矿典名称
+     * @return 允许时返回 true
+     */
+    public boolean matches(String name) {
+        return !this.excludes.matches(name) && this.includes.matches(name);
+    }
+
+    /**
+     * 将通配符转换为正则表达式。
+     */
+    private static String globToRegex(String glob) {
+        final StringBuilder sb = new StringBuilder();
+        int literalStart = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            final char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (i > literalStart) {
+                    sb.append(Pattern.quote(glob.substring(literalStart, i)));
+                }
+                sb.append(c == '*' ? ".*" : ".");
+                literalStart = i + 1;
+            }
+        }
+        if (literalStart < glob.length()) {
+            sb.append(Pattern.quote(glob.substring(literalStart)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 一组编译后的规则。
+     */
+    private static class Rules {
+
+        // 前缀树的根节点
+        private final TrieNode prefixes = new TrieNode();
+        // 所有通配符合并后的正则表达式
+        private Pattern globs;
+        // 用户填写的正则表达式，分别匹配以免分组编号互相影响
+        private Pattern[] regexes = new Pattern[0];
+
+        private boolean matches(String name) {
+            if (this.prefixes.matchesPrefix(name)) {
+                return true;
+            }
+            if (this.globs != null && this.globs.matcher(name)
+                .matches()) {
+                return true;
+            }
+            for (final Pattern regex : this.regexes) {
+                if (regex.matcher(name)
+                    .matches()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 规则构建器。
+     */
+    private static class Builder {
+
+        private final Rules rules = new Rules();
+        private final List<String> globs = new ArrayList<>();
+        private final List<Pattern> regexes = new ArrayList<>();
+
+        private void add(String pattern) {
+            if (pattern == null) {
+                return;
+            }
+            pattern = pattern.trim();
+            if (pattern.isEmpty()) {
+                return;
+            }
+
+            String regex = null;
+            if (pattern.startsWith("regex:")) {
+                regex = pattern.substring("regex:".length());
+            } else if (pattern.length() > 1 && pattern.startsWith("/") && pattern.endsWith("/")) {
+                regex = pattern.substring(1, pattern.length() - 1);
+            }
+
+            if (regex != null) {
+                try {
+                    this.regexes.add(Pattern.compile(regex));
+                } catch (PatternSyntaxException e) {
+                    TakoTechMod.LOG.warn("Ignoring invalid ore dictionary pattern {}: {}", pattern, e.getDescription());
+                }
+            } else if (pattern.indexOf('*') >= 0 || pattern.indexOf('?') >= 0) {
+                this.globs.add(globToRegex(pattern));
+            } else {
+                this.rules.prefixes.insert(pattern);
+            }
+        }
+
+        private Rules build() {
+            if (!this.globs.isEmpty()) {
+                this.rules.globs = Pattern.compile("(?:" + String.join(")|(?:", this.globs) + ")");
+            }
+            this.rules.regexes = this.regexes.toArray(new Pattern[0]);
+            return this.rules;
+        }
+    }
+
+    /**
+     * 前缀树节点，子节点以有序字符数组存放，适合矿典名称这种分支较少的场景。
+     */
+    private static class TrieNode {
+
+        private char[] keys = new char[0];
+        private TrieNode[] children = new TrieNode[0];
+        // 是否有前缀在此结束
+        private boolean terminal;
+
+        private void insert(String prefix) {
+            TrieNode node = this;
+            for (int i = 0; i < prefix.length() && !node.terminal; i++) {
+                node = node.getOrCreate(prefix.charAt(i));
+            }
+            // 更短的前缀已经覆盖了所有更长的前缀，剪掉多余的子节点
+            node.terminal = true;
+            node.keys = new char[0];
+            node.children = new TrieNode[0];
+        }
+
+        private boolean matchesPrefix(String name) {
+            TrieNode node = this;
+            for (int i = 0; !node.terminal; i++) {
+                if (i >= name.length()) {
+                    return false;
+                }
+                node = node.get(name.charAt(i));
+                if (node == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private TrieNode get(char c) {
+            final int index = Arrays.binarySearch(this.keys, c);
+            return index >= 0 ? this.children[index] : null;
+        }
+
+        private TrieNode getOrCreate(char c) {
+            int index = Arrays.binarySearch(this.keys, c);
+            if (index >= 0) {
+                return this.children[index];
+            }
+
+            index = -index - 1;
+            final TrieNode child = new TrieNode();
+            final char[] keys = new char[this.keys.length + 1];
+            final TrieNode[] children = new TrieNode[this.children.length + 1];
+            System.arraycopy(this.keys, 0, keys, 0, index);
+            System.arraycopy(this.children, 0, children, 0, index);
+            keys[index] = c;
+            children[index] = child;
+            System.arraycopy(this.keys, index, keys, index + 1, this.keys.length - index);
+            System.arraycopy(this.children, index, children, index + 1, this.children.length - index);
+            this.keys = keys;
+            this.children = children;
+            return child;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package moe.takochan.takotech.common.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import moe.takochan.takotech.utils.LongLongHashMap;
+
+class CellItemSnapshotTest {
+
+    private static long key(int id, int meta) {
+        return ((long) id << 32) | (meta & 0xFFFFFFFFL);
+    }
+
+    private static Map<Long, Long> entries(CellItemSnapshot snapshot) {
+        final Map<Long, Long> entries = new HashMap<>();
+        snapshot.forEachEntry((key, count) -> entries.put(key, count));
+        return entries;
+    }
+
+    @Test
+    void firstVersionCopiesAllEntries() {
+        final LongLongHashMap counts = new LongLongHashMap();
+        counts.put(key(1, 0), 10);
+        counts.put(key(1, 5), 20);
+        counts.put(key(2, -1), 30);
+
+        final CellItemSnapshot snapshot = CellItemSnapshot.of("disk", counts, null);
+        assertEquals("disk", snapshot.getDiskID());
+        assertEquals(1, snapshot.getVersion());
+        assertEquals(3, snapshot.getStoredTypes());
+        assertEquals(60, snapshot.getStoredCount());
+        assertEquals(20, snapshot.getCount(key(1, 5)));
+        assertEquals(30, snapshot.getCount(key(2, -1)));
+        assertEquals(0, snapshot.getCount(key(3, 0)));
+
+        // 之后修改数量表不影响已发布的快照
+        counts.put(key(1, 0), 99);
+        assertEquals(10, snapshot.getCount(key(1, 0)));
+    }
+
+    @Test
+    void emptySnapshot() {
+        final CellItemSnapshot snapshot = CellItemSnapshot.of("disk", new LongLongHashMap(), null);
+        assertTrue(snapshot.isEmpty());
+        assertEquals(0, snapshot.getStoredCount());
+        assertTrue(entries(snapshot).isEmpty());
+    }
+
+    @Test
+    void updateMergesChangesAndKeepsOldVersion() {
+        final LongLongHashMap counts = new LongLongHashMap();
+        counts.put(key(1, 0), 10);
+        counts.put(key(2, 0), 20);
+        final CellItemSnapshot first = CellItemSnapshot.of("disk", counts, null);
+
+        final LongLongHashMap changed = new LongLongHashMap();
+        // 修改、删除和新增各一个条目
+        counts.put(key(1, 0), 15);
+        changed.put(key(1, 0), 1);
+        counts.remove(key(2, 0));
+        changed.put(key(2, 0), 1);
+        counts.put(key(3, 7), 5);
+        changed.put(key(3, 7), 1);
+
+        final CellItemSnapshot second = first.update(counts, changed, null);
+        assertEquals(2, second.getVersion());
+        assertEquals(2, second.getStoredTypes());
+        assertEquals(20, second.getStoredCount());
+        assertEquals(15, second.getCount(key(1, 0)));
+        assertEquals(0, second.getCount(key(2, 0)));
+        assertEquals(5, second.getCount(key(3, 7)));
+
+        assertEquals(2, first.getStoredTypes());
+        assertEquals(30, first.getStoredCount());
+        assertEquals(20, first.getCount(key(2, 0)));
+    }
+
+    @Test
+    void updateWithoutChangesKeepsContents() {
+        final LongLongHashMap counts = new LongLongHashMap();
+        counts.put(key(1, 0), 10);
+        final CellItemSnapshot first = CellItemSnapshot.of("disk", counts, null);
+
+        final CellItemSnapshot second = first.update(counts, new LongLongHashMap(), null);
+        assertEquals(2, second.getVersion());
+        assertEquals(entries(first), entries(second));
+    }
+
+    @Test
+    void randomUpdatesMatchTheCounts() {
+        final Random random = new Random(42);
+        final LongLongHashMap counts = new LongLongHashMap();
+        CellItemSnapshot snapshot = CellItemSnapshot.of("disk", counts, null);
+
+        for (int round = 0; round < 50; round++) {
+            final LongLongHashMap changed = new LongLongHashMap();
+            for (int i = 0; i < 40; i++) {
+                final long key = key(random.nextInt(64), random.nextInt(8));
+                if (random.nextInt(4) == 0) {
+                    counts.remove(key);
+                } else {
+                    counts.put(key, 1 + random.nextInt(1000));
+                }
+                changed.put(key, 1);
+            }
+            snapshot = snapshot.update(counts, changed, null);
+
+            final Map<Long, Long> expected = new HashMap<>();
+            long total = 0;
+            for (int slot = 0; slot < counts.capacity(); slot++) {
+                if (counts.isUsed(slot)) {
+                    expected.put(counts.keyAt(slot), counts.valueAt(slot));
+                    total += counts.valueAt(slot);
+                }
+            }
+            assertEquals(expected, entries(snapshot));
+            assertEquals(expected.size(), snapshot.getStoredTypes());
+            assertEquals(total, snapshot.getStoredCount());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package moe.takochan.takotech.common.scheduler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import moe.takochan.takotech.config.TakoTechConfig;
+
+class TakoSchedulerTest {
+
+    private int budget;
+
+    @BeforeEach
+    void setUp() {
+        this.budget = TakoTechConfig.schedulerBudgetMs;
+        TakoTechConfig.schedulerBudgetMs = 2;
+        TakoScheduler.clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        TakoScheduler.clear();
+        TakoTechConfig.schedulerBudgetMs = this.budget;
+    }
+
+    /**
+     * 执行指定步数后完成的任务，步数为负时永不完成。
+     */
+    private static class CountingJob implements ITakoJob {
+
+        private final int priority;
+        private final int total;
+        private final long sleepMs;
+        private int steps;
+
+        private CountingJob(int priority, int total, long sleepMs) {
+            this.priority = priority;
+            this.total = total;
+            this.sleepMs = sleepMs;
+        }
+
+        @Override
+        public String getName() {
+            return "test";
+        }
+
+        @Override
+        public int getPriority() {
+            return this.priority;
+        }
+
+        @Override
+        public boolean step() {
+            this.steps++;
+            if (this.sleepMs > 0) {
+                try {
+                    Thread.sleep(this.sleepMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread()
+                        .interrupt();
+                }
+            }
+            return this.total < 0 || this.steps < this.total;
+        }
+    }
+
+    @Test
+    void lowPriorityJobsAreNotStarved() {
+        final CountingJob high = new CountingJob(10, -1, 0);
+        final CountingJob low = new CountingJob(-1, -1, 0);
+        TakoScheduler.submit(low);
+        TakoScheduler.submit(high);
+
+        TakoScheduler.tick();
+
+        assertTrue(low.steps > 0);
+        // 优先级为 10 的任务每轮执行 11 步，优先级为 -1 的任务每轮执行 1 步
+        assertTrue(high.steps >= low.steps * 10);
+    }
+
+    @Test
+    void finishedJobsAreRemoved() {
+        final CountingJob job = new CountingJob(0, 3, 0);
+        TakoScheduler.submit(job);
+        TakoScheduler.submit(job);
+
+        TakoScheduler.tick();
+
+        assertEquals(3, job.steps);
+        assertFalse(TakoScheduler.isScheduled(job));
+    }
+
+    @Test
+    void noStepStartsOnceTheBudgetIsUsed() {
+        final CountingJob first = new CountingJob(0, -1, 5);
+        final CountingJob second = new CountingJob(0, -1, 5);
+        TakoScheduler.submit(first);
+        TakoScheduler.submit(second);
+
+        TakoScheduler.tick();
+        assertEquals(1, first.steps);
+        assertEquals(0, second.steps);
+
+        // 下一个 tick 从中断的位置继续
+        TakoScheduler.tick();
+        assertEquals(1, first.steps);
+        assertEquals(1, second.steps);
+    }
+
+    @Test
+    void cancelledJobsStopRunning() {
+        final CountingJob job = new CountingJob(0, -1, 0);
+        TakoScheduler.submit(job);
+        TakoScheduler.cancel(job);
+
+        TakoScheduler.tick();
+
+        assertEquals(0, job.steps);
+        assertFalse(TakoScheduler.isScheduled(job));
+    }
+}
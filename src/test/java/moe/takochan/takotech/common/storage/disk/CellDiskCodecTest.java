@@ -0,0 +1,110 @@
+package moe.takochan.takotech.common.storage.disk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+class CellDiskCodecTest {
+
+    private static final int[] METAS = { 0, 1, -1, 2, -2, 32767, 32768, -32768, 1 << 29, (1 << 30) - 1, 1 << 30,
+        -(1 << 30), Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE + 1 };
+
+    private static final long[] LONGS = { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, 1L << 32, Long.MAX_VALUE, -1,
+        Long.MIN_VALUE };
+
+    @Test
+    void varIntRoundTrip() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        for (final int value : METAS) {
+            CellDiskCodec.writeVarInt(out, value);
+        }
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (final int value : METAS) {
+            assertEquals(value, CellDiskCodec.readVarInt(in));
+        }
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    void varLongRoundTrip() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        for (final long value : LONGS) {
+            CellDiskCodec.writeVarLong(out, value);
+        }
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (final long value : LONGS) {
+            assertEquals(value, CellDiskCodec.readVarLong(in));
+        }
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    void smallValuesUseOneByte() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CellDiskCodec.writeVarLong(new DataOutputStream(bytes), 127);
+        assertEquals(1, bytes.size());
+    }
+
+    @Test
+    void overlongVarIntIsRejected() {
+        final byte[] data = { (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0 };
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        assertThrows(IOException.class, () -> CellDiskCodec.readVarInt(in));
+    }
+
+    @Test
+    void packedMetaKeepsMetaAndFlag() {
+        for (final int meta : METAS) {
+            for (final boolean hasTag : new boolean[] { false, true }) {
+                final long packed = CellDiskCodec.packMeta(meta, hasTag);
+                assertTrue(packed >= 0 && packed < 1L << 33, "packed meta " + meta + " out of range");
+                assertEquals(meta, CellDiskCodec.unpackMeta(packed));
+                assertEquals(hasTag ? 1 : 0, packed & 1);
+            }
+        }
+    }
+
+    @Test
+    void packedMetaSurvivesVarLong() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        for (final int meta : METAS) {
+            CellDiskCodec.writeVarLong(out, CellDiskCodec.packMeta(meta, true));
+        }
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (final int meta : METAS) {
+            final long packed = CellDiskCodec.readVarLong(in);
+            assertEquals(meta, CellDiskCodec.unpackMeta(packed));
+            assertEquals(1, packed & 1);
+        }
+    }
+
+    @Test
+    void versionOneMetaIsStillReadable() throws IOException {
+        // 版本 1 用 varint 写入同样的打包值，元数据的绝对值小于 2^30 时不会溢出
+        final int[] metas = { 0, 1, -1, 32767, -32768, (1 << 30) - 1, -(1 << 30) };
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        for (final int meta : metas) {
+            CellDiskCodec.writeVarInt(out, (int) CellDiskCodec.packMeta(meta, false));
+        }
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (final int meta : metas) {
+            assertEquals(meta, CellDiskCodec.unpackMeta(CellDiskCodec.readVarInt(in) & 0xFFFFFFFFL));
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package moe.takochan.takotech.common.storage.disk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import appeng.api.storage.data.IAEItemStack;
+
+class CellJournalTest {
+
+    @TempDir
+    File dir;
+
+    // 测试用的物品表，日志中只记录物品在表中的下标
+    private final List<IAEItemStack> items = new ArrayList<>();
+    // 最近一次读取物品时的日志段版本
+    private int readVersion;
+
+    private final CellJournal.ItemCodec codec = new CellJournal.ItemCodec() {
+
+        @Override
+        public void write(DataOutputStream out, IAEItemStack item) throws IOException {
+            out.writeInt(CellJournalTest.this.items.indexOf(item));
+        }
+
+        @Override
+        public IAEItemStack read(DataInputStream in, int version) throws IOException {
+            CellJournalTest.this.readVersion = version;
+            final int index = in.readInt();
+            return index >= 0 ? CellJournalTest.this.items.get(index) : null;
+        }
+    };
+
+    /**
+     * 创建只按引用比较的物品。
+     */
+    private IAEItemStack item() {
+        final IAEItemStack item = (IAEItemStack) Proxy.newProxyInstance(
+            IAEItemStack.class.getClassLoader(),
+            new Class<?>[] { IAEItemStack.class },
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "item";
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        this.items.add(item);
+        return item;
+    }
+
+    private CellJournal open(long lastSeq) {
+        return new CellJournal(this.dir, lastSeq, this.codec);
+    }
+
+    private static void run(Runnable task) {
+        assertTrue(task != null);
+        task.run();
+    }
+
+    @Test
+    void flushWithoutRecordsReturnsNull() {
+        assertNull(this.open(0).flush());
+    }
+
+    @Test
+    void readAllGroupsRecordsByDiskInAppendOrder() {
+        final IAEItemStack iron = this.item();
+        final IAEItemStack gold = this.item();
+        final CellJournal journal = this.open(0);
+
+        journal.append("a", iron, 5);
+        journal.append("b", gold, 3);
+        journal.append("a", iron, -2);
+        assertTrue(journal.getBytesSinceCompact() > 0);
+        run(journal.flush());
+
+        final Map<String, List<CellJournal.Record>> records = journal.readAll();
+        assertEquals(2, records.size());
+
+        final List<CellJournal.Record> a = records.get("a");
+        assertEquals(2, a.size());
+        assertSame(iron, a.get(0).item);
+        assertEquals(5, a.get(0).delta);
+        assertEquals(-2, a.get(1).delta);
+        assertEquals(journal.getSeq(), a.get(0).seq);
+
+        final List<CellJournal.Record> b = records.get("b");
+        assertEquals(1, b.size());
+        assertSame(gold, b.get(0).item);
+        assertEquals(3, b.get(0).delta);
+    }
+
+    @Test
+    void rotatedSegmentsReplayInOrderWithTheirSeq() {
+        final IAEItemStack iron = this.item();
+        final CellJournal journal = this.open(0);
+
+        journal.append("a", iron, 1);
+        run(journal.flush());
+        final long first = journal.getSeq();
+        final long second = journal.rotate();
+        assertTrue(second > first);
+        assertEquals(0, journal.getBytesSinceCompact());
+
+        journal.append("a", iron, 2);
+        run(journal.flush());
+
+        final List<CellJournal.Record> records = journal.readAll()
+            .get("a");
+        assertEquals(2, records.size());
+        assertEquals(first, records.get(0).seq);
+        assertEquals(1, records.get(0).delta);
+        assertEquals(second, records.get(1).seq);
+        assertEquals(2, records.get(1).delta);
+
+        // 分片记录了 second 之后，只有 second 之后的记录需要重放
+        long replayed = 0;
+        for (final CellJournal.Record record : records) {
+            if (record.seq >= second) {
+                replayed += record.delta;
+            }
+        }
+        assertEquals(2, replayed);
+    }
+
+    @Test
+    void deleteBeforeRemovesOlderSegments() {
+        final IAEItemStack iron = this.item();
+        final CellJournal journal = this.open(0);
+
+        journal.append("a", iron, 1);
+        run(journal.flush());
+        final long second = journal.rotate();
+        journal.append("a", iron, 2);
+        run(journal.flush());
+
+        journal.deleteBefore(second);
+
+        final List<CellJournal.Record> records = journal.readAll()
+            .get("a");
+        assertEquals(1, records.size());
+        assertEquals(second, records.get(0).seq);
+        assertEquals(1, this.dir.list().length);
+    }
+
+    @Test
+    void incompleteTailRecordIsIgnored() throws IOException {
+        final IAEItemStack iron = this.item();
+        final CellJournal journal = this.open(0);
+
+        journal.append("a", iron, 7);
+        journal.append("a", iron, 9);
+        run(journal.flush());
+
+        // 模拟写入最后一条记录时崩溃
+        final File segment = this.dir.listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        final List<CellJournal.Record> records = journal.readAll()
+            .get("a");
+        assertEquals(1, records.size());
+        assertEquals(7, records.get(0).delta);
+    }
+
+    @Test
+    void recordsOfUnknownItemsAreSkipped() {
+        final IAEItemStack iron = this.item();
+        final IAEItemStack removed = this.item();
+        final CellJournal journal = this.open(0);
+
+        journal.append("a", removed, 4);
+        journal.append("a", iron, 6);
+        run(journal.flush());
+        this.items.set(1, null);
+
+        final List<CellJournal.Record> records = journal.readAll()
+            .get("a");
+        assertEquals(1, records.size());
+        assertSame(iron, records.get(0).item);
+        assertEquals(6, records.get(0).delta);
+    }
+
+    @Test
+    void reopenedJournalContinuesAfterExistingSegments() {
+        final IAEItemStack iron = this.item();
+        final CellJournal journal = this.open(0);
+        final long seq = journal.getSeq();
+        journal.append("a", iron, 1);
+        run(journal.flush());
+
+        final CellJournal reopened = this.open(0);
+        assertTrue(reopened.getSeq() > seq);
+        assertFalse(reopened.readAll()
+            .isEmpty());
+
+        final long saved = Long.MAX_VALUE / 2;
+        assertTrue(this.open(saved)
+            .getSeq() > saved);
+    }
+
+    @Test
+    void newSegmentsStartWithAHeader() throws IOException {
+        final IAEItemStack iron = this.item();
+        final CellJournal journal = this.open(0);
+
+        journal.append("a", iron, 1);
+        run(journal.flush());
+        journal.append("a", iron, 2);
+        run(journal.flush());
+
+        // 同一个日志段只写入一次文件头
+        final File segment = this.dir.listFiles()[0];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(segment))) {
+            assertEquals(CellJournal.SEGMENT_MAGIC, in.readInt());
+            assertEquals(CellJournal.SEGMENT_VERSION, in.readUnsignedByte());
+        }
+        assertEquals(2, journal.readAll()
+            .get("a")
+            .size());
+        assertEquals(CellJournal.SEGMENT_VERSION, this.readVersion);
+    }
+
+    @Test
+    void segmentsWithoutHeaderAreReadAsShortMeta() throws IOException {
+        final IAEItemStack iron = this.item();
+        // 旧版本的日志段没有文件头
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(this.dir, "journal-5.log")))) {
+            out.writeUTF("a");
+            out.writeInt(0);
+            out.writeLong(3);
+        }
+
+        final List<CellJournal.Record> records = this.open(0)
+            .readAll()
+            .get("a");
+        assertEquals(1, records.size());
+        assertSame(iron, records.get(0).item);
+        assertEquals(3, records.get(0).delta);
+        assertEquals(5, records.get(0).seq);
+        assertEquals(CellJournal.SEGMENT_VERSION_SHORT_META, this.readVersion);
+    }
+}
@@ -0,0 +1,132 @@
+package moe.takochan.takotech.common.storage.disk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraftforge.common.util.Constants;
+
+import org.junit.jupiter.api.Test;
+
+class NBTStreamReaderTest {
+
+    private static NBTTagCompound sample() {
+        final NBTTagCompound root = new NBTTagCompound();
+        root.setByte("byte", (byte) -3);
+        root.setShort("short", (short) 1234);
+        root.setInteger("int", 123456);
+        root.setLong("long", 1L << 40);
+        root.setFloat("float", 1.5f);
+        root.setDouble("double", -2.25);
+        root.setString("string", "矿物");
+        root.setByteArray("bytes", new byte[] { 1, 2, 3 });
+        root.setIntArray("ints", new int[] { 4, 5, 6 });
+
+        final NBTTagList items = new NBTTagList();
+        for (int i = 0; i < 3; i++) {
+            final NBTTagCompound item = new NBTTagCompound();
+            item.setInteger("id", i);
+            item.setTag("nested", new NBTTagCompound());
+            items.appendTag(item);
+        }
+        root.setTag("items", items);
+        return root;
+    }
+
+    private static NBTStreamReader reader(NBTTagCompound root) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CompressedStreamTools.write(root, new DataOutputStream(bytes));
+        final NBTStreamReader reader = new NBTStreamReader(
+            new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        reader.beginRoot();
+        return reader;
+    }
+
+    @Test
+    void readValueMatchesCompressedStreamTools() throws IOException {
+        final NBTTagCompound root = sample();
+        final NBTStreamReader reader = reader(root);
+
+        final NBTTagCompound read = new NBTTagCompound();
+        byte type;
+        while ((type = reader.nextEntry()) != Constants.NBT.TAG_END) {
+            read.setTag(reader.getName(), reader.readValue(type));
+        }
+        assertEquals(root, read);
+    }
+
+    @Test
+    void skippingKeepsTheStreamAligned() throws IOException {
+        final NBTStreamReader reader = reader(sample());
+
+        long value = 0;
+        byte type;
+        while ((type = reader.nextEntry()) != Constants.NBT.TAG_END) {
+            if ("long".equals(reader.getName())) {
+                value = reader.readLong(type);
+            } else {
+                reader.skipValue(type);
+            }
+        }
+        assertEquals(1L << 40, value);
+    }
+
+    @Test
+    void typedReadersConvertOrSkip() throws IOException {
+        final NBTStreamReader reader = reader(sample());
+
+        final List<NBTTagCompound> items = new ArrayList<>();
+        byte type;
+        while ((type = reader.nextEntry()) != Constants.NBT.TAG_END) {
+            switch (reader.getName()) {
+                case "short":
+                    assertEquals(1234, reader.readLong(type));
+                    break;
+                case "int":
+                    assertEquals(123456, reader.readLong(type));
+                    break;
+                case "string":
+                    assertEquals("矿物", reader.readString(type));
+                    break;
+                case "float":
+                    // 不是整数类型时跳过并返回 0
+                    assertEquals(0, reader.readLong(type));
+                    break;
+                case "double":
+                    assertEquals("", reader.readString(type));
+                    break;
+                case "items":
+                    reader.readCompoundList(type, items::add);
+                    break;
+                default:
+                    reader.skipValue(type);
+                    break;
+            }
+        }
+
+        assertEquals(3, items.size());
+        for (int i = 0; i < items.size(); i++) {
+            assertEquals(
+                i,
+                items.get(i)
+                    .getInteger("id"));
+        }
+    }
+
+    @Test
+    void nonCompoundRootIsRejected() {
+        final byte[] data = { Constants.NBT.TAG_INT, 0, 0, 0, 0, 0, 1 };
+        final NBTStreamReader reader = new NBTStreamReader(new DataInputStream(new ByteArrayInputStream(data)));
+        assertThrows(IOException.class, reader::beginRoot);
+    }
+}
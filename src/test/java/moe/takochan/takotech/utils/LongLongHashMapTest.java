@@ -0,0 +1,137 @@
+package moe.takochan.takotech.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class LongLongHashMapTest {
+
+    @Test
+    void putGetAndAddTo() {
+        final LongLongHashMap map = new LongLongHashMap();
+        assertTrue(map.isEmpty());
+        assertEquals(-1, map.get(1, -1));
+
+        map.put(1, 10);
+        map.put(-5, 20);
+        assertEquals(10, map.get(1, -1));
+        assertEquals(20, map.get(-5, -1));
+        assertEquals(2, map.size());
+
+        assertEquals(15, map.addTo(1, 5));
+        assertEquals(7, map.addTo(42, 7));
+        assertEquals(3, map.size());
+        assertTrue(map.containsKey(42));
+    }
+
+    @Test
+    void emptyKeyIsRejected() {
+        final LongLongHashMap map = new LongLongHashMap();
+        assertThrows(IllegalArgumentException.class, () -> map.put(LongLongHashMap.EMPTY_KEY, 1));
+        assertFalse(map.containsKey(LongLongHashMap.EMPTY_KEY));
+    }
+
+    @Test
+    void growsPastInitialCapacity() {
+        final LongLongHashMap map = new LongLongHashMap();
+        final int initial = map.capacity();
+        for (long key = 0; key < 10_000; key++) {
+            map.put(key << 32 | key, key);
+        }
+        assertEquals(10_000, map.size());
+        assertTrue(map.capacity() > initial);
+        for (long key = 0; key < 10_000; key++) {
+            assertEquals(key, map.get(key << 32 | key, -1));
+        }
+    }
+
+    @Test
+    void removeKeepsProbeChainsIntact() {
+        // 小容量下大量键会落在同一段槽位，删除后其余键必须仍然可以找到
+        final LongLongHashMap map = new LongLongHashMap();
+        for (long key = 1; key <= 12; key++) {
+            map.put(key, key * 10);
+        }
+        for (long key = 1; key <= 12; key += 2) {
+            assertTrue(map.remove(key));
+        }
+        assertFalse(map.remove(1));
+        assertEquals(6, map.size());
+        for (long key = 1; key <= 12; key++) {
+            assertEquals(key % 2 == 0 ? key * 10 : -1, map.get(key, -1));
+        }
+    }
+
+    @Test
+    void matchesHashMapUnderRandomOperations() {
+        final Random random = new Random(1234);
+        final LongLongHashMap map = new LongLongHashMap();
+        final Map<Long, Long> expected = new HashMap<>();
+        for (int i = 0; i < 200_000; i++) {
+            // 键的范围较小，保证插入和删除交替命中已有的键
+            final long key = random.nextInt(2048) - 1024L;
+            switch (random.nextInt(3)) {
+                case 0:
+                    map.put(key, i);
+                    expected.put(key, (long) i);
+                    break;
+                case 1:
+                    assertEquals(expected.remove(key) != null, map.remove(key));
+                    break;
+                default:
+                    assertEquals((long) expected.merge(key, 3L, Long::sum), map.addTo(key, 3));
+                    break;
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        int used = 0;
+        for (int slot = 0; slot < map.capacity(); slot++) {
+            if (map.isUsed(slot)) {
+                used++;
+                assertEquals((long) expected.get(map.keyAt(slot)), map.valueAt(slot));
+            }
+        }
+        assertEquals(expected.size(), used);
+    }
+
+    @Test
+    void copyIsIndependent() {
+        final LongLongHashMap map = new LongLongHashMap();
+        map.put(1, 1);
+        map.put(2, 2);
+
+        final LongLongHashMap copy = map.copy();
+        copy.put(3, 3);
+        copy.remove(1);
+        map.addTo(2, 5);
+
+        assertEquals(1, map.get(1, -1));
+        assertFalse(map.containsKey(3));
+        assertEquals(7, map.get(2, -1));
+        assertEquals(-1, copy.get(1, -1));
+        assertEquals(3, copy.get(3, -1));
+        assertEquals(2, copy.get(2, -1));
+        assertEquals(2, copy.size());
+    }
+
+    @Test
+    void clearKeepsCapacity() {
+        final LongLongHashMap map = new LongLongHashMap();
+        for (long key = 0; key < 100; key++) {
+            map.put(key, key);
+        }
+        final int capacity = map.capacity();
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertEquals(capacity, map.capacity());
+        assertFalse(map.containsKey(5));
+    }
+}
@@ -0,0 +1,82 @@
+package moe.takochan.takotech.utils;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class OreNameMatcherTest {
+
+    private static OreNameMatcher compile(String... includes) {
+        return OreNameMatcher.compile(includes, null);
+    }
+
+    @Test
+    void emptyMatcherMatchesNothing() {
+        assertFalse(OreNameMatcher.EMPTY.matches("oreIron"));
+        assertFalse(compile().matches("oreIron"));
+        assertFalse(compile(null, "", "  ").matches("oreIron"));
+    }
+
+    @Test
+    void plainPatternsArePrefixes() {
+        final OreNameMatcher matcher = compile("ore", "crushed");
+        assertTrue(matcher.matches("oreIron"));
+        assertTrue(matcher.matches("ore"));
+        assertTrue(matcher.matches("crushedPurifiedGold"));
+        assertFalse(matcher.matches("or"));
+        assertFalse(matcher.matches("dustIron"));
+    }
+
+    @Test
+    void shorterPrefixCoversLongerOnes() {
+        // 先插入较长的前缀，再插入较短的前缀，较短的前缀必须生效
+        final OreNameMatcher matcher = compile("oreNether", "ore");
+        assertTrue(matcher.matches("oreIron"));
+        assertTrue(matcher.matches("oreNetherIron"));
+    }
+
+    @Test
+    void globsMatchTheWholeName() {
+        final OreNameMatcher matcher = compile("dust*Iron", "gem?");
+        assertTrue(matcher.matches("dustIron"));
+        assertTrue(matcher.matches("dustImpureIron"));
+        assertFalse(matcher.matches("dustIronSmall"));
+        assertTrue(matcher.matches("gemA"));
+        assertFalse(matcher.matches("gem"));
+        assertFalse(matcher.matches("gemAB"));
+    }
+
+    @Test
+    void globQuotesRegexCharacters() {
+        final OreNameMatcher matcher = compile("a.b*");
+        assertTrue(matcher.matches("a.bc"));
+        assertFalse(matcher.matches("axbc"));
+    }
+
+    @Test
+    void regexesMatchTheWholeName() {
+        final OreNameMatcher matcher = compile("/crushed(Purified)?Iron/", "regex:ore(Copper|Tin)");
+        assertTrue(matcher.matches("crushedIron"));
+        assertTrue(matcher.matches("crushedPurifiedIron"));
+        assertFalse(matcher.matches("crushedCentrifugedIron"));
+        assertTrue(matcher.matches("oreTin"));
+        assertFalse(matcher.matches("oreTinSmall"));
+    }
+
+    @Test
+    void invalidRegexIsIgnored() {
+        final OreNameMatcher matcher = compile("/ore(/", "dust");
+        assertTrue(matcher.matches("dustIron"));
+        assertFalse(matcher.matches("ore("));
+    }
+
+    @Test
+    void excludesWinOverIncludes() {
+        final OreNameMatcher matcher = OreNameMatcher
+            .compile(new String[] { "ore", "!oreNether*" }, new String[] { "/oreEnd.*/" });
+        assertTrue(matcher.matches("oreIron"));
+        assertFalse(matcher.matches("oreNetherIron"));
+        assertFalse(matcher.matches("oreEndIron"));
+    }
+}